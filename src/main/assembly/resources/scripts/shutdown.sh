@@ -4,23 +4,60 @@
 APP_BASE=`dirname $0`
 APP_LIB=$APP_BASE/lib
 APP_CONF=$APP_BASE/config
+# The signal actions read the application PID from the portFile in shutdown-listener.properties and require
+# ShutdownSignalHandler to be installed. A relative portFile is resolved against APP_BASE.
+APP_PORT_FILE=$(grep '^[[:space:]]*portFile[[:space:]]*=' $APP_CONF/shutdown-listener.properties 2>/dev/null | tail -1 | cut -d= -f2- | sed 's/^[[:space:]]*//;s/[[:space:]]*$//')
+APP_PORT_FILE=${APP_PORT_FILE:-shutdown-listener.port}
+case "$APP_PORT_FILE" in
+/*) ;;
+*) APP_PORT_FILE=$APP_BASE/$APP_PORT_FILE ;;
+esac
 
 CMD_STOP_AND_WAIT=SHUTDOWN_AND_WAIT
 CMD_STOP_NO_WAIT=SHUTDOWN_NO_WAIT
 CMD_STATUS=STATUS
+CMD_HANDOFF=HANDOFF
+CMD_PAUSE=PAUSE
+CMD_RESUME=RESUME
+CMD_STOP_GROUP=SHUTDOWN
+CMD_DRY_RUN=DRY_RUN
 
 
 
 
 
-# Check for exactly 1 argument
-if [ $# -ne 1 ]; then
-    echo "Usage: $0 {stop|stop-nowait|status}" >&2
+# Check for 1 argument, 2 for stop-group
+if [ $# -lt 1 -o $# -gt 2 ]; then
+    echo "Usage: $0 {stop|stop-nowait|status|dry-run|handoff|pause|resume|stop-signal|dump-signal|stop-group <group>}" >&2
     exit 127
 fi
 
 ACTION=$1
 
+# Signal actions don't need a JVM
+function signalApp {
+    if [ ! -f $APP_PORT_FILE ]
+    then
+        echo "Port file '$APP_PORT_FILE' does not exist" >&2
+        exit 1
+    fi
+    kill -$1 $(grep '^pid=' $APP_PORT_FILE | cut -d= -f2)
+}
+
+case "$ACTION" in
+stop-signal)
+    echo "Sending SIGTERM to application ..."
+    signalApp TERM
+    exit $?
+    ;;
+
+dump-signal)
+    echo "Sending SIGUSR2 to application, status will be written to the application log ..."
+    signalApp USR2
+    exit $?
+    ;;
+esac
+
 # Validate Configuration
 if [ ! -d $JAVA_HOME ]
 then
@@ -30,12 +67,37 @@ fi
 
 cd $APP_BASE
 
-APP_CLASSPATH=$APP_CONF
-for jarFile in $(ls $APP_LIB/*.jar); do
-    APP_CLASSPATH=${APP_CLASSPATH}:$jarFile
-done
+# Only the dependency free client jar is needed to send a command
+CLIENT_JAR=$(ls $APP_LIB/shutdown-listener-*-client.jar 2>/dev/null | head -1)
+if [ -n "$CLIENT_JAR" ]
+then
+    # Config is passed as a file, class data sharing doesn't allow directories on the classpath
+    APP_CLASSPATH=$CLIENT_JAR
+    APP_MAIN="-Dshutdown-listener.configurationFile=$APP_CONF/shutdown-listener.properties com.googlecode.shutdownlistener.client.ShutdownClient"
+else
+    APP_CLASSPATH=$APP_CONF
+    for jarFile in $(ls $APP_LIB/*.jar); do
+        APP_CLASSPATH=${APP_CLASSPATH}:$jarFile
+    done
+    APP_MAIN=com.googlecode.shutdownlistener.ShutdownUtility
+fi
 
-APP_STOP="$JAVA_HOME/bin/java -cp $APP_CLASSPATH com.googlecode.shutdownlistener.ShutdownUtility"
+# Class data sharing archive for the client, created by the first call and mapped by every later one. Requires
+# Java 13 or later and the client jar, older JVMs refuse to start with the archive options so it is off unless
+# CLIENT_CDS names the archive file, for example CLIENT_CDS=$APP_LIB/shutdown-client.jsa
+CLIENT_CDS=${CLIENT_CDS-}
+APP_JAVA_OPTS="-Xshare:auto -XX:TieredStopAtLevel=1 -XX:+UseSerialGC -Xss256k"
+if [ -n "$CLIENT_CDS" -a -n "$CLIENT_JAR" ]
+then
+    if [ -f $CLIENT_CDS ]
+    then
+        APP_JAVA_OPTS="$APP_JAVA_OPTS -XX:SharedArchiveFile=$CLIENT_CDS"
+    else
+        APP_JAVA_OPTS="$APP_JAVA_OPTS -XX:ArchiveClassesAtExit=$CLIENT_CDS"
+    fi
+fi
+
+APP_STOP="$JAVA_HOME/bin/java $APP_JAVA_OPTS -cp $APP_CLASSPATH $APP_MAIN"
 
 
 function stop {
@@ -74,4 +136,25 @@ stop-nowait)
     stopNowait
     ;;
 
+dry-run)
+    $APP_STOP $CMD_DRY_RUN
+    ;;
+
+handoff)
+    echo "Handing off to replacement instance ..."
+    $APP_STOP $CMD_HANDOFF
+    ;;
+
+pause)
+    $APP_STOP $CMD_PAUSE
+    ;;
+
+resume)
+    $APP_STOP $CMD_RESUME
+    ;;
+
+stop-group)
+    $APP_STOP "$CMD_STOP_GROUP group=$2"
+    ;;
+
 esac
@@ -0,0 +1,32 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener;
+
+/**
+ * {@link ShutdownListener} that gives up on its work after a timeout, the timeout is reported in the
+ * {@link ShutdownPlan} so the worst case shutdown time can be checked against the grace period.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public interface BoundedShutdownListener extends ShutdownListener {
+    /**
+     * @return Maximum time in milliseconds {@link #shutdown()} will take
+     */
+    public long getShutdownTimeout();
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+/**
+ * Reads a single command line from a shutdown socket connection using a fixed size buffer and an overall read
+ * deadline so a misbehaving client can neither grow the heap nor hold a handler thread indefinitely.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+class ControlCommandReader {
+    /**
+     * Thrown when the client sends more than the maximum command length without a line terminator
+     */
+    static class CommandTooLongException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        CommandTooLongException(int maxCommandLength) {
+            super("Command exceeds maximum length of " + maxCommandLength + " bytes");
+        }
+    }
+    
+    private final byte[] buffer;
+    private final long readTimeout;
+    
+    /**
+     * @param maxCommandLength Maximum length of a command in bytes, excluding the line terminator, must be greater than 0
+     * @param readTimeout Maximum time in milliseconds to wait for the complete command, must be greater than 0
+     */
+    ControlCommandReader(int maxCommandLength, long readTimeout) {
+        if (maxCommandLength <= 0) {
+            throw new IllegalArgumentException("maxCommandLength must be greater than 0: " + maxCommandLength);
+        }
+        if (readTimeout <= 0) {
+            throw new IllegalArgumentException("readTimeout must be greater than 0: " + readTimeout);
+        }
+        this.buffer = new byte[maxCommandLength + 2];
+        this.readTimeout = readTimeout;
+    }
+    
+    /**
+     * @return The command without its line terminator, null if the client closed the connection without sending anything
+     * @throws SocketTimeoutException If the command is not received before the read deadline
+     * @throws CommandTooLongException If the command is longer than the maximum length
+     */
+    String readCommand(Socket connection) throws IOException {
+        final long deadline = System.currentTimeMillis() + this.readTimeout;
+        final InputStream in = connection.getInputStream();
+        
+        int length = 0;
+        while (true) {
+            final long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new SocketTimeoutException("Command not received within " + this.readTimeout + "ms");
+            }
+            connection.setSoTimeout((int) Math.min(Integer.MAX_VALUE, remaining));
+            
+            final int read = in.read(this.buffer, length, this.buffer.length - length);
+            if (read < 0) {
+                return length == 0 ? null : this.toCommand(length);
+            }
+            
+            for (int i = length; i < length + read; i++) {
+                if (this.buffer[i] == '\n') {
+                    return this.toCommand(i);
+                }
+            }
+            length += read;
+            
+            if (length == this.buffer.length) {
+                throw new CommandTooLongException(this.buffer.length - 2);
+            }
+        }
+    }
+    
+    private String toCommand(int length) throws IOException {
+        if (length > 0 && this.buffer[length - 1] == '\r') {
+            length--;
+        }
+        if (length > this.buffer.length - 2) {
+            throw new CommandTooLongException(this.buffer.length - 2);
+        }
+        return new String(this.buffer, 0, length, "UTF-8");
+    }
+}
@@ -0,0 +1,294 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.shutdownlistener;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link java.util.concurrent.ExecutorService} wrapper around a {@link ThreadPoolExecutor} that registers itself
+ * with a {@link ShutdownHandler}. When the handler shuts down the executor starts draining: new submissions are passed
+ * to the drain {@link RejectedExecutionHandler} (which rejects them by default), queued tasks are given up to
+ * {@link #setDrainTimeout(long)} milliseconds to complete and any tasks that never ran are available from
+ * {@link #getUnexecutedTasks()}. Queue depth and drain rate are logged while draining and exposed via getters.
+ *
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class DrainingExecutorService extends AbstractExecutorService {
+    protected final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final ShutdownHandler shutdownHandler;
+    private final ThreadPoolExecutor executor;
+    private final String name;
+
+    private volatile RejectedExecutionHandler drainRejectionHandler = new ThreadPoolExecutor.AbortPolicy();
+    private volatile long drainTimeout = 30000;
+    private volatile long progressInterval = 1000;
+
+    private volatile boolean draining = false;
+    private volatile long drainStartTime = 0;
+    private volatile long drainEndTime = 0;
+    private volatile long completedAtDrainStart = 0;
+    private volatile List<Runnable> unexecutedTasks = Collections.emptyList();
+
+    /**
+     * Wraps the executor and registers a {@link ShutdownListener} with the handler that drains it. The executor's
+     * {@link RejectedExecutionHandler} is wrapped so rejections after draining starts go to the drain rejection
+     * handler even when the executor's own policy would silently discard the task, it should not be replaced afterwards.
+     */
+    public DrainingExecutorService(ShutdownHandler shutdownHandler, ThreadPoolExecutor executor, String name) {
+        if (shutdownHandler == null) {
+            throw new IllegalArgumentException("ShutdownHandler cannot be null");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("ThreadPoolExecutor cannot be null");
+        }
+        this.shutdownHandler = shutdownHandler;
+        this.executor = executor;
+        this.name = name;
+        this.executor.setRejectedExecutionHandler(new DrainingRejectionHandler(executor.getRejectedExecutionHandler()));
+
+        shutdownHandler.registerShutdownListener(new DrainingShutdownListener());
+    }
+
+    /**
+     * Handler called for tasks submitted after draining has started, defaults to {@link ThreadPoolExecutor.AbortPolicy}.
+     * The handler is passed the wrapped executor which will already be shut down, use a handler that diverts the
+     * task elsewhere if it should not be rejected.
+     */
+    public void setDrainRejectionHandler(RejectedExecutionHandler drainRejectionHandler) {
+        if (drainRejectionHandler == null) {
+            throw new IllegalArgumentException("RejectedExecutionHandler cannot be null");
+        }
+        this.drainRejectionHandler = drainRejectionHandler;
+    }
+
+    /**
+     * Maximum time in milliseconds to wait for queued and running tasks to complete, defaults to 30000
+     */
+    public void setDrainTimeout(long drainTimeout) {
+        this.drainTimeout = drainTimeout;
+    }
+    public long getDrainTimeout() {
+        return this.drainTimeout;
+    }
+
+    /**
+     * How often in milliseconds drain progress is logged, defaults to 1000
+     */
+    public void setProgressInterval(long progressInterval) {
+        this.progressInterval = progressInterval;
+    }
+
+    /**
+     * @return The wrapped executor
+     */
+    public ThreadPoolExecutor getExecutor() {
+        return this.executor;
+    }
+
+    /**
+     * @return true once the owning {@link ShutdownHandler} has started shutting down
+     */
+    public boolean isDraining() {
+        return this.draining;
+    }
+
+    /**
+     * @return Number of tasks waiting in the executor's queue
+     */
+    public int getQueueDepth() {
+        return this.executor.getQueue().size();
+    }
+
+    /**
+     * @return Number of threads actively running tasks
+     */
+    public int getActiveCount() {
+        return this.executor.getActiveCount();
+    }
+
+    /**
+     * @return Tasks completed per second since draining started, 0 if not draining
+     */
+    public double getDrainRate() {
+        final long start = this.drainStartTime;
+        if (start == 0) {
+            return 0;
+        }
+
+        final long end = this.drainEndTime != 0 ? this.drainEndTime : System.currentTimeMillis();
+        final long completed = this.executor.getCompletedTaskCount() - this.completedAtDrainStart;
+        return completed * 1000d / Math.max(1, end - start);
+    }
+
+    /**
+     * @return Tasks that were still queued when the drain timeout expired, empty until draining completes
+     */
+    public List<Runnable> getUnexecutedTasks() {
+        return this.unexecutedTasks;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.Executor#execute(java.lang.Runnable)
+     */
+    public void execute(Runnable command) {
+        if (this.draining) {
+            this.drainRejectionHandler.rejectedExecution(command, this.executor);
+            return;
+        }
+
+        //Losing the race with the drain starting is handled by the DrainingRejectionHandler
+        this.executor.execute(command);
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.ExecutorService#shutdown()
+     */
+    public void shutdown() {
+        this.executor.shutdown();
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.ExecutorService#shutdownNow()
+     */
+    public List<Runnable> shutdownNow() {
+        return this.executor.shutdownNow();
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.ExecutorService#isShutdown()
+     */
+    public boolean isShutdown() {
+        return this.executor.isShutdown();
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.ExecutorService#isTerminated()
+     */
+    public boolean isTerminated() {
+        return this.executor.isTerminated();
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.ExecutorService#awaitTermination(long, java.util.concurrent.TimeUnit)
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return this.executor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Stops accepting new tasks and waits up to the drain timeout for queued tasks to complete
+     */
+    protected void drain() {
+        this.completedAtDrainStart = this.executor.getCompletedTaskCount();
+        this.drainStartTime = System.currentTimeMillis();
+        this.draining = true;
+        this.executor.shutdown();
+
+        this.logger.info("Draining {}: {} queued, {} active", new Object[] { this.name, this.getQueueDepth(), this.getActiveCount() });
+        final ShutdownTrace.Span span = this.shutdownHandler.getShutdownTrace().begin("Drain " + this.name, "drain")
+                .arg("queued", this.getQueueDepth()).arg("active", this.getActiveCount());
+
+        final long deadline = this.drainStartTime + this.drainTimeout;
+        try {
+            while (!this.executor.isTerminated()) {
+                final long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+
+                if (!this.executor.awaitTermination(Math.min(remaining, this.progressInterval), TimeUnit.MILLISECONDS)) {
+                    this.logger.info("Draining {}: {} queued, {} active, {} tasks/s",
+                            new Object[] { this.name, this.getQueueDepth(), this.getActiveCount(), String.format("%.1f", this.getDrainRate()) });
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            this.logger.warn("Interrupted while draining " + this.name + ", abandoning queued tasks", e);
+            Thread.currentThread().interrupt();
+        }
+
+        if (!this.executor.isTerminated()) {
+            this.unexecutedTasks = Collections.unmodifiableList(this.executor.shutdownNow());
+            this.logger.warn("Drain of {} did not complete within {}ms, {} queued tasks were not run",
+                    new Object[] { this.name, this.drainTimeout, this.unexecutedTasks.size() });
+        }
+
+        this.drainEndTime = System.currentTimeMillis();
+        span.arg("completed", this.executor.getCompletedTaskCount() - this.completedAtDrainStart)
+            .arg("unexecuted", this.unexecutedTasks.size()).end();
+        this.logger.info("Drained {} in {}ms", this.name, this.drainEndTime - this.drainStartTime);
+    }
+
+    @Override
+    public String toString() {
+        return "DrainingExecutorService [name=" + name + ", draining=" + draining + ", queueDepth=" + getQueueDepth()
+                + ", activeCount=" + getActiveCount() + "]";
+    }
+
+    /**
+     * Sends tasks rejected after draining starts to the drain rejection handler, other rejections go to the executor's
+     * original handler
+     */
+    private class DrainingRejectionHandler implements RejectedExecutionHandler {
+        private final RejectedExecutionHandler executorRejectionHandler;
+        
+        public DrainingRejectionHandler(RejectedExecutionHandler executorRejectionHandler) {
+            this.executorRejectionHandler = executorRejectionHandler;
+        }
+
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (draining) {
+                drainRejectionHandler.rejectedExecution(r, executor);
+            }
+            else {
+                this.executorRejectionHandler.rejectedExecution(r, executor);
+            }
+        }
+    }
+
+    /**
+     * Registered with the {@link ShutdownHandler} to drain the executor
+     */
+    private class DrainingShutdownListener implements BoundedShutdownListener, InFlightShutdownListener {
+        public void shutdown() {
+            drain();
+        }
+
+        public long getShutdownTimeout() {
+            return drainTimeout;
+        }
+
+        public int getInFlightCount() {
+            return getQueueDepth() + getActiveCount();
+        }
+
+        @Override
+        public String toString() {
+            return "DrainingShutdownListener [name=" + name + "]";
+        }
+    }
+}
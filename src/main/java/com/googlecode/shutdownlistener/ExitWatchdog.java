@@ -0,0 +1,211 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Optional watchdog that makes sure the JVM exits after a {@link ShutdownHandler} has shut down. Once shutdown
+ * completes and the application thread has finished the watchdog waits {@link #setGracePeriod(long)} milliseconds,
+ * if non-daemon threads are still alive at that point each one is logged with its stack and hints about where it was
+ * created and the JVM is halted with {@link Runtime#halt(int)}.
+ * <p>
+ * The application thread is the thread that is expected to exit the JVM or return from main once the handler has shut
+ * down, for example the main thread still destroying the Spring context in
+ * {@link com.googlecode.shutdownlistener.spring.ApplicationContextShutdownWrapper#waitForShutdown()}. It defaults to
+ * the thread that created the watchdog and is never treated as lingering.
+ * <p>
+ * Lingering threads only keep the JVM alive when nothing has called {@link System#exit(int)}. If the JVM is already
+ * exiting, for example because the shutdown was started by a signal or the JVM shutdown hook, the threads are still
+ * logged but the JVM is not halted, so the pending exit status (such as 143 for SIGTERM) is kept instead of being
+ * replaced by {@link #setExitCode(int)}.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class ExitWatchdog implements Runnable {
+    protected final Logger logger = LoggerFactory.getLogger(this.getClass());
+    
+    private final ShutdownHandler shutdownHandler;
+    private long gracePeriod = 5000;
+    private int exitCode = 0;
+    private volatile Thread applicationThread = Thread.currentThread();
+    
+    public ExitWatchdog(ShutdownHandler shutdownHandler) {
+        if (shutdownHandler == null) {
+            throw new IllegalArgumentException("ShutdownHandler cannot be null");
+        }
+        this.shutdownHandler = shutdownHandler;
+    }
+    
+    /**
+     * Milliseconds to wait after shutdown completes before checking for lingering threads, defaults to 5000
+     */
+    public void setGracePeriod(long gracePeriod) {
+        this.gracePeriod = gracePeriod;
+    }
+
+    /**
+     * Exit code used when halting a JVM that is not already exiting, defaults to 0
+     */
+    public void setExitCode(int exitCode) {
+        this.exitCode = exitCode;
+    }
+
+    /**
+     * Thread that exits the JVM or returns from main after shutdown, the grace period starts once it has finished.
+     * Defaults to the thread that created the watchdog, set to null to start the grace period as soon as shutdown completes.
+     */
+    public void setApplicationThread(Thread applicationThread) {
+        this.applicationThread = applicationThread;
+    }
+
+    /**
+     * Starts the watchdog thread
+     */
+    public void start() {
+        final Thread watchdogThread = new Thread(this, "ExitWatchdog");
+        watchdogThread.setDaemon(true);
+        watchdogThread.start();
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Runnable#run()
+     */
+    public void run() {
+        this.shutdownHandler.waitForShutdown();
+        
+        try {
+            final Thread applicationThread = this.applicationThread;
+            if (applicationThread != null && applicationThread != Thread.currentThread()) {
+                this.logger.debug("Waiting for application thread {} to finish", applicationThread.getName());
+                applicationThread.join();
+            }
+            
+            Thread.sleep(this.gracePeriod);
+        }
+        catch (InterruptedException e) {
+            this.logger.warn("ExitWatchdog interrupted, JVM will not be halted", e);
+            return;
+        }
+        
+        final Map<Thread, StackTraceElement[]> lingeringThreads = this.getLingeringThreads();
+        if (lingeringThreads.isEmpty()) {
+            return;
+        }
+        
+        final boolean jvmExiting = this.isJvmExiting();
+        
+        final StringBuilder report = new StringBuilder();
+        report.append(lingeringThreads.size()).append(" non-daemon threads still alive ").append(this.gracePeriod);
+        if (jvmExiting) {
+            report.append("ms after shutdown completed, JVM is already exiting and will not be halted");
+        }
+        else {
+            report.append("ms after shutdown completed, halting JVM with exit code ").append(this.exitCode);
+        }
+        for (final Map.Entry<Thread, StackTraceElement[]> entry : lingeringThreads.entrySet()) {
+            this.appendThread(report, entry.getKey(), entry.getValue());
+        }
+        this.logger.warn(report.toString());
+        
+        if (!jvmExiting) {
+            this.halt(this.exitCode);
+        }
+    }
+    
+    /**
+     * Halts the JVM, overridable for testing
+     */
+    protected void halt(int status) {
+        Runtime.getRuntime().halt(status);
+    }
+    
+    /**
+     * @return true if {@link System#exit(int)} has been called, shutdown hooks can no longer be registered once it has
+     */
+    protected boolean isJvmExiting() {
+        final Thread probe = new Thread("ExitWatchdog Probe");
+        try {
+            Runtime.getRuntime().addShutdownHook(probe);
+            Runtime.getRuntime().removeShutdownHook(probe);
+            return false;
+        }
+        catch (IllegalStateException ise) {
+            return true;
+        }
+    }
+    
+    /**
+     * @return Live non-daemon threads other than the application thread and the JVM's DestroyJavaVM thread
+     */
+    protected Map<Thread, StackTraceElement[]> getLingeringThreads() {
+        final Thread applicationThread = this.applicationThread;
+        final Map<Thread, StackTraceElement[]> lingeringThreads = new LinkedHashMap<Thread, StackTraceElement[]>();
+        for (final Map.Entry<Thread, StackTraceElement[]> entry : Thread.getAllStackTraces().entrySet()) {
+            final Thread thread = entry.getKey();
+            if (thread.isAlive() && !thread.isDaemon() && thread != applicationThread && !"DestroyJavaVM".equals(thread.getName())) {
+                lingeringThreads.put(thread, entry.getValue());
+            }
+        }
+        return lingeringThreads;
+    }
+    
+    private void appendThread(StringBuilder report, Thread thread, StackTraceElement[] stack) {
+        report.append("\n\"").append(thread.getName()).append("\" id=").append(thread.getId()).append(" state=").append(thread.getState());
+        
+        //Creation hints, the thread type, group and context ClassLoader usually identify the owning library
+        report.append("\n  class: ").append(thread.getClass().getName());
+        final ThreadGroup threadGroup = thread.getThreadGroup();
+        if (threadGroup != null) {
+            report.append(", group: ").append(threadGroup.getName());
+        }
+        final ClassLoader contextClassLoader = thread.getContextClassLoader();
+        if (contextClassLoader != null) {
+            report.append(", context ClassLoader: ").append(contextClassLoader);
+        }
+        if (stack.length > 0) {
+            report.append("\n  entry point: ").append(stack[stack.length - 1]);
+            final StackTraceElement owner = this.findOwnerFrame(stack);
+            if (owner != null) {
+                report.append("\n  first application frame: ").append(owner);
+            }
+        }
+        
+        for (final StackTraceElement element : stack) {
+            report.append("\n\tat ").append(element);
+        }
+    }
+    
+    /**
+     * @return The top-most frame that isn't from the JDK, null if there is none
+     */
+    private StackTraceElement findOwnerFrame(StackTraceElement[] stack) {
+        for (final StackTraceElement element : stack) {
+            final String className = element.getClassName();
+            if (!className.startsWith("java.") && !className.startsWith("javax.") && !className.startsWith("sun.") && !className.startsWith("jdk.")) {
+                return element;
+            }
+        }
+        return null;
+    }
+}
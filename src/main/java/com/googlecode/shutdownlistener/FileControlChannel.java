@@ -0,0 +1,293 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Date;
+import java.util.concurrent.Semaphore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Control channel for environments where the shutdown socket can't be opened. Commands are sent by dropping a file
+ * named <code>&lt;name&gt;.cmd</code> containing the command into the watched directory, the file should be written
+ * elsewhere and moved into the directory so it is never read partially written, an empty command file is claimed
+ * like any other. The command file is consumed and the responses, including progress of long running commands, are
+ * written atomically to <code>&lt;name&gt;.status</code> next to it. Supports the same commands as the shutdown socket,
+ * at most maxConnections commands run at once and command files over that limit are answered with "Too many commands".
+ * <p>
+ * Command files found at startup, including files a previous instance claimed but never finished, were meant for that
+ * instance and are not run. They are renamed with a <code>.stale</code> suffix so they are visible but can't be picked
+ * up later.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+class FileControlChannel implements Runnable, ShutdownListener {
+    static final String COMMAND_SUFFIX = ".cmd";
+    static final String STATUS_SUFFIX = ".status";
+    static final String PROCESSING_SUFFIX = ".processing";
+    static final String STALE_SUFFIX = ".stale";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    protected final Logger logger = LoggerFactory.getLogger(this.getClass());
+    
+    private final ShutdownHandler shutdownHandler;
+    private final Path controlDirectory;
+    private final WatchService watchService;
+    private final Semaphore commandPermits;
+    
+    FileControlChannel(ShutdownHandler shutdownHandler, File controlDirectory) {
+        this.shutdownHandler = shutdownHandler;
+        this.controlDirectory = controlDirectory.toPath();
+        this.commandPermits = new Semaphore(ShutdownConfiguration.getInstance().getMaxConnections());
+        
+        try {
+            Files.createDirectories(this.controlDirectory);
+            this.watchService = FileSystems.getDefault().newWatchService();
+            this.controlDirectory.register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+        catch (IOException ioe) {
+            throw new RuntimeException("Failed to watch control directory '" + controlDirectory + "'", ioe);
+        }
+        
+        //Commands left over from before startup were meant for a previous instance
+        final File[] staleCommands = controlDirectory.listFiles();
+        if (staleCommands != null) {
+            for (final File staleCommand : staleCommands) {
+                final String name = staleCommand.getName();
+                if (name.endsWith(COMMAND_SUFFIX) || name.endsWith(PROCESSING_SUFFIX)) {
+                    final File staleFile = new File(controlDirectory, name + STALE_SUFFIX);
+                    if (staleCommand.renameTo(staleFile)) {
+                        logger.warn("Ignoring command file '{}' that existed before startup, renamed to '{}'", staleCommand, staleFile);
+                    }
+                    else {
+                        logger.warn("Ignoring command file '{}' that existed before startup, it could not be renamed", staleCommand);
+                    }
+                }
+            }
+        }
+
+        logger.info("Watching '{}' for {} command files", this.controlDirectory, COMMAND_SUFFIX);
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Runnable#run()
+     */
+    public void run() {
+        try {
+            while (true) {
+                final WatchKey key = this.watchService.take();
+                for (final WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        logger.warn("Missed events for control directory '{}', some command files may need to be resent", this.controlDirectory);
+                        continue;
+                    }
+                    
+                    final Path fileName = (Path) event.context();
+                    if (fileName.toString().endsWith(COMMAND_SUFFIX)) {
+                        this.claimCommand(this.controlDirectory.resolve(fileName));
+                    }
+                }
+                
+                if (!key.reset()) {
+                    logger.warn("Control directory '{}' is no longer accessible, file control channel stopped", this.controlDirectory);
+                    return;
+                }
+            }
+        }
+        catch (ClosedWatchServiceException cwse) {
+            logger.info("Caught ClosedWatchServiceException, assuming shutdown() was called");
+        }
+        catch (InterruptedException ie) {
+            logger.warn("Interrupted watching control directory, file control channel stopped", ie);
+        }
+    }
+    
+    /**
+     * Moves the command file aside so create and modify events for the same file only run the command once, then
+     * runs the command on its own thread so long running commands don't block the watcher. Commands over the limit
+     * are rejected without starting a thread.
+     */
+    private void claimCommand(Path commandFile) {
+        final String name = commandFile.getFileName().toString();
+        final String baseName = name.substring(0, name.length() - COMMAND_SUFFIX.length());
+        final Path claimedFile = commandFile.resolveSibling(baseName + PROCESSING_SUFFIX);
+        
+        final String command;
+        try {
+            Files.move(commandFile, claimedFile, StandardCopyOption.ATOMIC_MOVE);
+            command = this.readCommand(claimedFile);
+            Files.delete(claimedFile);
+        }
+        catch (NoSuchFileException nsfe) {
+            //Already claimed from an earlier event
+            return;
+        }
+        catch (IOException ioe) {
+            logger.warn("Failed to read command file '" + commandFile + "', ignoring", ioe);
+            return;
+        }
+        
+        final Path statusFile = commandFile.resolveSibling(baseName + STATUS_SUFFIX);
+        if (!this.commandPermits.tryAcquire()) {
+            this.rejectCommand(command, statusFile);
+            return;
+        }
+        
+        final Thread commandThread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    executeCommand(command, statusFile);
+                }
+                finally {
+                    commandPermits.release();
+                }
+            }
+        }, "ShutdownHandler-" + name);
+        commandThread.setDaemon(true);
+        commandThread.start();
+    }
+    
+    private void rejectCommand(String command, Path statusFile) {
+        logger.warn("Rejecting command '{}' from control directory, {} commands already running", 
+                command, ShutdownConfiguration.getInstance().getMaxConnections());
+        
+        final PrintWriter writer = new PrintWriter(new StatusFileWriter(statusFile));
+        writer.println(new Date() + ": Too many commands");
+        writer.close();
+        
+        if (writer.checkError()) {
+            logger.warn("Failed to write status file '{}' for rejected command '{}'", statusFile, command);
+        }
+    }
+    
+    /**
+     * Reads the first line of the command file, at most maxCommandLength bytes are read
+     */
+    private String readCommand(Path commandFile) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(ShutdownConfiguration.getInstance().getMaxCommandLength());
+        final FileChannel channel = FileChannel.open(commandFile, StandardOpenOption.READ);
+        try {
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                //Fill the buffer
+            }
+        }
+        finally {
+            channel.close();
+        }
+        buffer.flip();
+        
+        final String content = UTF8.decode(buffer).toString();
+        final int lineEnd = content.indexOf('\n');
+        return (lineEnd < 0 ? content : content.substring(0, lineEnd)).trim();
+    }
+    
+    private void executeCommand(String command, Path statusFile) {
+        final PrintWriter writer = new PrintWriter(new StatusFileWriter(statusFile));
+        final boolean shutdownNoWait;
+        try {
+            shutdownNoWait = this.shutdownHandler.executeCommand(command, writer);
+        }
+        finally {
+            writer.close();
+        }
+        
+        //PrintWriter swallows IOExceptions, without this a failure to write the status would go unnoticed
+        if (writer.checkError()) {
+            logger.warn("Failed to write status file '{}' for command '{}'", statusFile, command);
+        }
+        
+        if (shutdownNoWait) {
+            this.shutdownHandler.shutdown();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see com.googlecode.shutdownlistener.ShutdownListener#shutdown()
+     */
+    public void shutdown() {
+        try {
+            this.watchService.close();
+            logger.debug("Stopped watching control directory '{}'", this.controlDirectory);
+        }
+        catch (IOException ioe) {
+            //Ignore
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FileControlChannel [controlDirectory=" + controlDirectory + "]";
+    }
+    
+    /**
+     * Buffers the response and replaces the status file with everything written so far on each flush, readers see
+     * either the previous or the new content but never a partial write
+     */
+    private class StatusFileWriter extends Writer {
+        private final Path statusFile;
+        private final Path tempFile;
+        private final StringBuilder content = new StringBuilder();
+        
+        public StatusFileWriter(Path statusFile) {
+            this.statusFile = statusFile;
+            this.tempFile = statusFile.resolveSibling("." + statusFile.getFileName() + ".tmp");
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            this.content.append(cbuf, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            Files.write(this.tempFile, this.content.toString().getBytes(UTF8));
+            try {
+                Files.move(this.tempFile, this.statusFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException amnse) {
+                Files.move(this.tempFile, this.statusFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.flush();
+        }
+    }
+}
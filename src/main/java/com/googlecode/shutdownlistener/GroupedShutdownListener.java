@@ -0,0 +1,32 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener;
+
+/**
+ * {@link ShutdownListener} that belongs to a named group of listeners that can be shut down on its own with
+ * {@link ShutdownHandler#shutdownGroup(String)}, for example to stop a batch consumer on a loaded node.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public interface GroupedShutdownListener extends ShutdownListener {
+    /**
+     * @return Name of the group this listener belongs to
+     */
+    public String getShutdownGroup();
+}
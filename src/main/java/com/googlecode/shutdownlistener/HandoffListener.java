@@ -0,0 +1,34 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener;
+
+/**
+ * {@link ShutdownListener} that takes part in a handoff to a replacement instance. When a handoff is requested
+ * {@link #stopAccepting()} is called on every handoff listener before any {@link #shutdown()} is called, letting
+ * the replacement instance, which has already bound the same ports, take over all new connections while this
+ * instance drains.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public interface HandoffListener extends ShutdownListener {
+    /**
+     * Stop accepting new connections or work, in-flight work should continue to be served until {@link #shutdown()}
+     */
+    public void stopAccepting();
+}
@@ -0,0 +1,32 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener;
+
+/**
+ * {@link ShutdownListener} that can report how much work it has in progress, the counts of all registered listeners
+ * are summed into the status page so external monitors can watch work drain during shutdown.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public interface InFlightShutdownListener extends ShutdownListener {
+    /**
+     * @return Number of requests or tasks currently in progress or queued, must be cheap to call
+     */
+    public int getInFlightCount();
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener;
+
+/**
+ * Lifecycle states of a {@link ShutdownHandler}, each has the description reported by the status command. The status
+ * page identifies states by their position, see {@link com.googlecode.shutdownlistener.client.StatusPageReader#STATES},
+ * so new states must be added at the end.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public enum LifecycleState {
+    /**
+     * The shutdown socket is open but startup listeners are still running
+     */
+    STARTING("Starting"),
+    /**
+     * All startup listeners have completed
+     */
+    READY("Running"),
+    /**
+     * Temporarily out of rotation, the application is alive but shedding traffic
+     */
+    PAUSED("Paused"),
+    /**
+     * Shutdown listeners are running
+     */
+    SHUTTING_DOWN("Shutting down"),
+    /**
+     * All shutdown listeners have completed
+     */
+    SHUT_DOWN("Shut down");
+    
+    private final String description;
+    
+    private LifecycleState(String description) {
+        this.description = description;
+    }
+    
+    /**
+     * @return Description reported by the status command
+     */
+    public String getDescription() {
+        return this.description;
+    }
+}
@@ -0,0 +1,336 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.PlatformManagedObject;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Optional monitor that turns sustained memory pressure into a graceful restart. The occupancy of the tenured heap
+ * pools after garbage collection and the usage of direct buffers are checked every {@link #setCheckInterval(long)}
+ * milliseconds, the pools' collection usage thresholds are also set so a check runs as soon as the JVM reports a
+ * pool over its threshold after a collection. If the pressure stays above the threshold for
+ * {@link #setSustainDuration(long)} milliseconds the trigger is logged and recorded, {@link ShutdownHandler#shutdown()}
+ * is called and the JVM exits with the restart exit code so a supervisor can restart it before it is OOM killed.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class MemoryPressureMonitor implements Runnable {
+    protected final Logger logger = LoggerFactory.getLogger(this.getClass());
+    
+    private final ShutdownHandler shutdownHandler;
+    private final Object checkLock = new Object();
+    private double heapThreshold = 0.9;
+    private double directThreshold = 0.9;
+    private long maxDirectMemory = -1;
+    private long checkInterval = 5000;
+    private long sustainDuration = 30000;
+    private int restartExitCode = 75;
+    private boolean exitAfterShutdown = true;
+    private File triggerFile = null;
+    
+    private volatile boolean running = false;
+    private volatile String trigger = null;
+    private long pressureStart = 0;
+    
+    public MemoryPressureMonitor(ShutdownHandler shutdownHandler) {
+        if (shutdownHandler == null) {
+            throw new IllegalArgumentException("ShutdownHandler cannot be null");
+        }
+        this.shutdownHandler = shutdownHandler;
+    }
+    
+    /**
+     * Fraction of a tenured heap pool's maximum size that may be in use after a collection, defaults to 0.9
+     */
+    public void setHeapThreshold(double heapThreshold) {
+        this.heapThreshold = heapThreshold;
+    }
+
+    /**
+     * Fraction of the maximum direct memory that may be in use, defaults to 0.9
+     */
+    public void setDirectThreshold(double directThreshold) {
+        this.directThreshold = directThreshold;
+    }
+
+    /**
+     * Maximum direct memory in bytes, defaults to the JVM's MaxDirectMemorySize. Set to 0 to disable direct memory checks.
+     */
+    public void setMaxDirectMemory(long maxDirectMemory) {
+        this.maxDirectMemory = maxDirectMemory;
+    }
+
+    /**
+     * Milliseconds between checks, defaults to 5000
+     */
+    public void setCheckInterval(long checkInterval) {
+        this.checkInterval = checkInterval;
+    }
+
+    /**
+     * Milliseconds memory must stay above a threshold before a restart is triggered, defaults to 30000
+     */
+    public void setSustainDuration(long sustainDuration) {
+        this.sustainDuration = sustainDuration;
+    }
+
+    /**
+     * Exit code used after the triggered shutdown completes, defaults to 75 (EX_TEMPFAIL)
+     */
+    public void setRestartExitCode(int restartExitCode) {
+        this.restartExitCode = restartExitCode;
+    }
+    
+    /**
+     * If {@link System#exit(int)} should be called once the triggered shutdown completes, defaults to true
+     */
+    public void setExitAfterShutdown(boolean exitAfterShutdown) {
+        this.exitAfterShutdown = exitAfterShutdown;
+    }
+
+    /**
+     * File the trigger description is written to before shutting down, defaults to null (not written)
+     */
+    public void setTriggerFile(File triggerFile) {
+        this.triggerFile = triggerFile;
+    }
+    
+    /**
+     * @return Description of what triggered the restart, null if no restart has been triggered
+     */
+    public String getTrigger() {
+        return this.trigger;
+    }
+
+    /**
+     * Starts the monitor thread, the monitor stops when the {@link ShutdownHandler} shuts down
+     */
+    public void start() {
+        if (this.maxDirectMemory < 0) {
+            this.maxDirectMemory = getJvmMaxDirectMemory();
+        }
+        
+        for (final MemoryPoolMXBean pool : getTenuredPools()) {
+            final long max = pool.getUsage().getMax();
+            if (max > 0 && pool.isCollectionUsageThresholdSupported()) {
+                pool.setCollectionUsageThreshold((long) (max * this.heapThreshold));
+            }
+        }
+        
+        final NotificationEmitter emitter = (NotificationEmitter) ManagementFactory.getMemoryMXBean();
+        final NotificationListener notificationListener = new NotificationListener() {
+            public void handleNotification(Notification notification, Object handback) {
+                if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+                    synchronized (checkLock) {
+                        checkLock.notifyAll();
+                    }
+                }
+            }
+        };
+        emitter.addNotificationListener(notificationListener, null, null);
+        
+        this.running = true;
+        final Thread monitorThread = new Thread(this, "MemoryPressureMonitor");
+        monitorThread.setDaemon(true);
+        monitorThread.start();
+        
+        this.shutdownHandler.registerShutdownListener(new ShutdownListener() {
+            public void shutdown() {
+                running = false;
+                try {
+                    emitter.removeNotificationListener(notificationListener);
+                }
+                catch (Exception e) {
+                    //Ignore
+                }
+                synchronized (checkLock) {
+                    checkLock.notifyAll();
+                }
+            }
+
+            @Override
+            public String toString() {
+                return "MemoryPressureMonitor Stopper";
+            }
+        });
+        
+        this.logger.info("Started memory pressure monitor with heap threshold {} and direct memory threshold {} of {} bytes",
+                new Object[] { this.heapThreshold, this.directThreshold, this.maxDirectMemory });
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Runnable#run()
+     */
+    public void run() {
+        while (this.running) {
+            final String pressure = this.checkPressure();
+            final long now = System.currentTimeMillis();
+            
+            if (pressure == null) {
+                if (this.pressureStart != 0) {
+                    this.logger.info("Memory pressure cleared");
+                }
+                this.pressureStart = 0;
+            }
+            else if (this.pressureStart == 0) {
+                this.logger.warn("Memory pressure detected, restarting if it lasts {}ms: {}", this.sustainDuration, pressure);
+                this.pressureStart = now;
+            }
+            else if (now - this.pressureStart >= this.sustainDuration) {
+                this.triggerRestart(pressure + " for " + (now - this.pressureStart) + "ms");
+                return;
+            }
+            
+            synchronized (this.checkLock) {
+                try {
+                    this.checkLock.wait(this.checkInterval);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+    
+    /**
+     * @return Description of the pool(s) over their threshold, null if there is no memory pressure
+     */
+    protected String checkPressure() {
+        final StringBuilder pressure = new StringBuilder();
+        
+        for (final MemoryPoolMXBean pool : getTenuredPools()) {
+            final MemoryUsage usage = pool.getCollectionUsage();
+            if (usage == null || usage.getMax() <= 0) {
+                continue;
+            }
+            
+            final double occupancy = usage.getUsed() / (double) usage.getMax();
+            if (occupancy >= this.heapThreshold) {
+                pressure.append(pressure.length() > 0 ? ", " : "").append(pool.getName()).append(" post-GC occupancy ")
+                    .append(String.format("%.2f", occupancy));
+            }
+        }
+        
+        if (this.maxDirectMemory > 0) {
+            long directUsed = 0;
+            for (final BufferPoolMXBean bufferPool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+                if ("direct".equals(bufferPool.getName())) {
+                    directUsed += bufferPool.getMemoryUsed();
+                }
+            }
+            
+            final double occupancy = directUsed / (double) this.maxDirectMemory;
+            if (occupancy >= this.directThreshold) {
+                pressure.append(pressure.length() > 0 ? ", " : "").append("direct memory occupancy ")
+                    .append(String.format("%.2f", occupancy));
+            }
+        }
+        
+        return pressure.length() > 0 ? pressure.toString() : null;
+    }
+    
+    protected void triggerRestart(String trigger) {
+        this.trigger = trigger;
+        this.logger.error("Sustained memory pressure, triggering graceful restart: {}", trigger);
+        
+        if (this.triggerFile != null) {
+            try {
+                final FileWriter writer = new FileWriter(this.triggerFile);
+                try {
+                    writer.write(new Date() + ": " + trigger + "\n");
+                }
+                finally {
+                    writer.close();
+                }
+            }
+            catch (IOException ioe) {
+                this.logger.warn("Failed to record memory pressure trigger to '" + this.triggerFile + "'", ioe);
+            }
+        }
+        
+        this.shutdownHandler.shutdown();
+        
+        if (this.exitAfterShutdown) {
+            this.logger.info("Memory pressure triggered shutdown complete, exiting with exit code {}", this.restartExitCode);
+            System.exit(this.restartExitCode);
+        }
+    }
+    
+    /**
+     * Heap pools that support usage thresholds, this excludes the eden and survivor spaces whose occupancy says
+     * nothing about long lived memory
+     */
+    private static List<MemoryPoolMXBean> getTenuredPools() {
+        final List<MemoryPoolMXBean> tenuredPools = new ArrayList<MemoryPoolMXBean>();
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported()) {
+                tenuredPools.add(pool);
+            }
+        }
+        return tenuredPools;
+    }
+    
+    /**
+     * Reads MaxDirectMemorySize from the HotSpot diagnostic MXBean, which is looked up reflectively so the monitor
+     * still loads on JVMs that don't have it
+     */
+    static long getJvmMaxDirectMemory() {
+        try {
+            final Class<? extends PlatformManagedObject> diagnosticClass = 
+                    Class.forName("com.sun.management.HotSpotDiagnosticMXBean").asSubclass(PlatformManagedObject.class);
+            final Object diagnostic = ManagementFactory.getPlatformMXBean(diagnosticClass);
+            final Object option = diagnosticClass.getMethod("getVMOption", String.class).invoke(diagnostic, "MaxDirectMemorySize");
+            final Object value = option.getClass().getMethod("getValue").invoke(option);
+            
+            final long maxDirectMemory = Long.parseLong(String.valueOf(value));
+            if (maxDirectMemory > 0) {
+                return maxDirectMemory;
+            }
+        }
+        catch (ReflectiveOperationException roe) {
+            //Not a HotSpot JVM, use the default
+        }
+        catch (RuntimeException re) {
+            //Option missing or not a number, use the default
+        }
+        
+        //The JVM defaults the direct memory limit to the maximum heap size
+        return Runtime.getRuntime().maxMemory();
+    }
+}
@@ -0,0 +1,37 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener;
+
+/**
+ * {@link ShutdownListener} that can be temporarily taken out of rotation without shutting down, see
+ * {@link ShutdownHandler#pause()} and {@link ShutdownHandler#resume()}.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public interface PauseListener extends ShutdownListener {
+    /**
+     * Stop accepting new work, in-flight work should be allowed to complete. The application stays alive.
+     */
+    public void pause();
+    
+    /**
+     * Start accepting new work again after {@link #pause()}
+     */
+    public void resume();
+}
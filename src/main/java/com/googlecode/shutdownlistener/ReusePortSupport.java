@@ -0,0 +1,126 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.Set;
+
+/**
+ * Utility for binding application ports with SO_REUSEPORT so a replacement instance can listen on the same ports
+ * as the instance it is taking over from, see {@link HandoffListener}. SO_REUSEPORT is only available when running
+ * on Java 9 or later on an operating system that supports it, such as Linux 3.9 or later.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public final class ReusePortSupport {
+    private static final Object SO_REUSEPORT;
+    static {
+        Object soReusePort = null;
+        try {
+            soReusePort = Class.forName("java.net.StandardSocketOptions").getField("SO_REUSEPORT").get(null);
+        }
+        catch (Exception e) {
+            //Not supported by this JVM
+        }
+        SO_REUSEPORT = soReusePort;
+    }
+    
+    private ReusePortSupport() {
+    }
+    
+    /**
+     * @return true if the JVM exposes the SO_REUSEPORT socket option
+     */
+    public static boolean isSupported() {
+        return SO_REUSEPORT != null;
+    }
+    
+    /**
+     * Enable SO_REUSEPORT on an unbound {@link ServerSocket} or {@link java.nio.channels.ServerSocketChannel}
+     * 
+     * @return true if the option was set, false if it is not supported by the JVM or operating system
+     * @throws IOException If setting the option fails for any other reason
+     */
+    public static boolean enableReusePort(Object serverSocket) throws IOException {
+        if (SO_REUSEPORT == null) {
+            return false;
+        }
+        
+        try {
+            //Lookup the methods on the public API type, the implementation classes are not accessible
+            final Class<?> socketType;
+            if (serverSocket instanceof ServerSocket) {
+                socketType = ServerSocket.class;
+            }
+            else {
+                socketType = Class.forName("java.nio.channels.NetworkChannel");
+            }
+            
+            final Method supportedOptions = socketType.getMethod("supportedOptions");
+            if (!((Set<?>) supportedOptions.invoke(serverSocket)).contains(SO_REUSEPORT)) {
+                return false;
+            }
+            
+            final Method setOption = socketType.getMethod("setOption", Class.forName("java.net.SocketOption"), Object.class);
+            setOption.invoke(serverSocket, SO_REUSEPORT, Boolean.TRUE);
+            return true;
+        }
+        catch (InvocationTargetException ite) {
+            final Throwable cause = ite.getCause();
+            if (cause instanceof UnsupportedOperationException) {
+                return false;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to set SO_REUSEPORT on " + serverSocket + ": " + cause);
+        }
+        catch (NoSuchMethodException nsme) {
+            return false;
+        }
+        catch (ClassNotFoundException cnfe) {
+            return false;
+        }
+        catch (IllegalAccessException iae) {
+            return false;
+        }
+    }
+    
+    /**
+     * Create a {@link ServerSocket} bound to the port with SO_REUSEPORT enabled when supported
+     */
+    public static ServerSocket bindReusePort(InetSocketAddress address, int backlog) throws IOException {
+        final ServerSocket serverSocket = new ServerSocket();
+        try {
+            if (!enableReusePort(serverSocket)) {
+                throw new IOException("SO_REUSEPORT is not supported, cannot share " + address + " with another instance");
+            }
+            serverSocket.bind(address, backlog);
+            return serverSocket;
+        }
+        catch (IOException ioe) {
+            serverSocket.close();
+            throw ioe;
+        }
+    }
+}
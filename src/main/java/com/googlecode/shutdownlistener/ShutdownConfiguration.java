@@ -50,9 +50,26 @@ public final class ShutdownConfiguration {
     
     private String host = "localhost";
     private int port = 7456;
+    private int portRangeEnd = 7456;
+    private String portFile = null;
+    private int maxCommandLength = 256;
+    private int readTimeout = 5000;
+    private int maxConnections = 8;
+    private int handoffTimeout = 120000;
+    private boolean socketEnabled = true;
+    private String controlDirectory = null;
+    private String traceFile = null;
+    private String historyFile = null;
+    private String statusFile = null;
+    private int statusInterval = 1000;
     private String shutdownNoWaitCommand = "SHUTDOWN_NO_WAIT";
     private String shutdownWaitCommand = "SHUTDOWN_AND_WAIT";
     private String statusCommand = "STATUS";
+    private String handoffCommand = "HANDOFF";
+    private String pauseCommand = "PAUSE";
+    private String resumeCommand = "RESUME";
+    private String shutdownGroupCommand = "SHUTDOWN";
+    private String dryRunCommand = "DRY_RUN";
     
     private ShutdownConfiguration() {
         final String propertiesFile = System.getProperty("shutdown-listener.configuration", "/shutdown-listener.properties");
@@ -72,10 +89,26 @@ public final class ShutdownConfiguration {
             }
             
             this.host = shutdownConfig.getProperty("host", this.host);
-            this.port = this.getProperty(shutdownConfig, "port", this.port);
+            this.parsePort(shutdownConfig.getProperty("port"));
+            this.portFile = shutdownConfig.getProperty("portFile", this.portFile);
+            this.maxCommandLength = this.getPositiveProperty(shutdownConfig, "maxCommandLength", this.maxCommandLength);
+            this.readTimeout = this.getPositiveProperty(shutdownConfig, "readTimeout", this.readTimeout);
+            this.maxConnections = this.getPositiveProperty(shutdownConfig, "maxConnections", this.maxConnections);
+            this.handoffTimeout = this.getPositiveProperty(shutdownConfig, "handoffTimeout", this.handoffTimeout);
+            this.socketEnabled = Boolean.parseBoolean(shutdownConfig.getProperty("socketEnabled", Boolean.toString(this.socketEnabled)).trim());
+            this.controlDirectory = shutdownConfig.getProperty("controlDirectory", this.controlDirectory);
+            this.traceFile = shutdownConfig.getProperty("traceFile", this.traceFile);
+            this.historyFile = shutdownConfig.getProperty("historyFile", this.historyFile);
+            this.statusFile = shutdownConfig.getProperty("statusFile", this.statusFile);
+            this.statusInterval = this.getProperty(shutdownConfig, "statusInterval", this.statusInterval);
             this.shutdownNoWaitCommand = shutdownConfig.getProperty("shutdownNoWaitCommand", this.shutdownNoWaitCommand);
             this.shutdownWaitCommand = shutdownConfig.getProperty("shutdownWaitCommand", this.shutdownWaitCommand);
             this.statusCommand = shutdownConfig.getProperty("statusCommand", this.statusCommand);
+            this.handoffCommand = shutdownConfig.getProperty("handoffCommand", this.handoffCommand);
+            this.pauseCommand = shutdownConfig.getProperty("pauseCommand", this.pauseCommand);
+            this.resumeCommand = shutdownConfig.getProperty("resumeCommand", this.resumeCommand);
+            this.shutdownGroupCommand = shutdownConfig.getProperty("shutdownGroupCommand", this.shutdownGroupCommand);
+            this.dryRunCommand = shutdownConfig.getProperty("dryRunCommand", this.dryRunCommand);
         }
         else {
             this.logger.debug("Using default configuration, '{}' does not exist in the ClassPath", propertiesFile);
@@ -86,13 +119,56 @@ public final class ShutdownConfiguration {
     
     private int getProperty(Properties p, String name, int defaultValue) {
         try {
-            return Integer.parseInt(p.getProperty("port", Integer.toString(this.port)));
+            return Integer.parseInt(p.getProperty(name, Integer.toString(defaultValue)).trim());
         }
         catch (NumberFormatException nfe) {
-            this.logger.warn("'" + name + "' property value of '" + p.getProperty("port") + "' could not be parsed to an Integer. The default value will be used", nfe);
+            this.logger.warn("'" + name + "' property value of '" + p.getProperty(name) + "' could not be parsed to an Integer. The default value will be used", nfe);
             return defaultValue;
         }
     }
+    
+    private int getPositiveProperty(Properties p, String name, int defaultValue) {
+        final int value = this.getProperty(p, name, defaultValue);
+        if (value <= 0) {
+            this.logger.warn("'{}' property value of '{}' must be greater than 0. The default value will be used", name, value);
+            return defaultValue;
+        }
+        return value;
+    }
+    
+    /**
+     * Parses a single port or a range of ports in the form "start-end"
+     */
+    private void parsePort(String portValue) {
+        if (portValue == null) {
+            return;
+        }
+        
+        try {
+            final int rangeSeparator = portValue.indexOf('-');
+            final int start;
+            final int end;
+            if (rangeSeparator < 0) {
+                start = Integer.parseInt(portValue.trim());
+                end = start;
+            }
+            else {
+                start = Integer.parseInt(portValue.substring(0, rangeSeparator).trim());
+                end = Integer.parseInt(portValue.substring(rangeSeparator + 1).trim());
+            }
+            
+            if (start < 0 || end < start || end > 65535) {
+                this.logger.warn("'port' property value of '{}' is not a valid port or port range. The default value will be used", portValue);
+                return;
+            }
+            
+            this.port = start;
+            this.portRangeEnd = end;
+        }
+        catch (NumberFormatException nfe) {
+            this.logger.warn("'port' property value of '" + portValue + "' could not be parsed to a port or port range. The default value will be used", nfe);
+        }
+    }
 
     /**
      * @return Host to use for shutdown, defaults to "localhost"
@@ -102,12 +178,97 @@ public final class ShutdownConfiguration {
     }
 
     /**
-     * @return Port to use for shutdown, defaults to 7456
+     * @return Port to use for shutdown, the first port of the range if a range is configured. 0 to bind an ephemeral port. Defaults to 7456
      */
-   public int getPort() {
+    public int getPort() {
         return port;
     }
 
+    /**
+     * @return Last port of the configured port range, the same as {@link #getPort()} if a single port is configured
+     */
+    public int getPortRangeEnd() {
+        return portRangeEnd;
+    }
+
+    /**
+     * @return File the bound host, port and PID are published to so clients can find an ephemeral or ranged port, defaults to null
+     */
+    public String getPortFile() {
+        return portFile;
+    }
+
+    /**
+     * @return Maximum length in bytes of a command sent to the shutdown socket, defaults to 256
+     */
+    public int getMaxCommandLength() {
+        return maxCommandLength;
+    }
+
+    /**
+     * @return Milliseconds a client has to send its complete command after connecting, must be greater than 0, defaults to 5000
+     */
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * @return Milliseconds a replacement instance waits for the running instance to complete a handoff, must be greater
+     * than 0, defaults to 120000
+     */
+    public int getHandoffTimeout() {
+        return handoffTimeout;
+    }
+
+    /**
+     * @return Maximum number of concurrent shutdown socket connections, further connections are rejected, defaults to 8
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * @return If the shutdown socket should be opened, defaults to true
+     */
+    public boolean isSocketEnabled() {
+        return socketEnabled;
+    }
+
+    /**
+     * @return Directory watched for command files as an alternative to the shutdown socket, defaults to null (not watched)
+     */
+    public String getControlDirectory() {
+        return controlDirectory;
+    }
+
+    /**
+     * @return File the shutdown timeline is written to in Chrome trace event format, defaults to null (not written)
+     */
+    public String getTraceFile() {
+        return traceFile;
+    }
+
+    /**
+     * @return File listener durations are recorded to after each shutdown, used to estimate shutdown plans, defaults to null (not recorded)
+     */
+    public String getHistoryFile() {
+        return historyFile;
+    }
+
+    /**
+     * @return Memory mapped file the handler status is published to, defaults to null (not published)
+     */
+    public String getStatusFile() {
+        return statusFile;
+    }
+
+    /**
+     * @return Milliseconds between status file heartbeats, defaults to 1000
+     */
+    public int getStatusInterval() {
+        return statusInterval;
+    }
+
     /**
      * @return Command to shutdown the application and return immediately, defaults to "SHUTDOWN_NO_WAIT"
      */
@@ -128,16 +289,68 @@ public final class ShutdownConfiguration {
     public String getStatusCommand() {
         return statusCommand;
     }
+
+    /**
+     * @return Command to stop accepting and shut down the application in favor of a replacement instance, defaults to "HANDOFF"
+     */
+    public String getHandoffCommand() {
+        return handoffCommand;
+    }
+
+    /**
+     * @return Command to take the application out of rotation without shutting down, defaults to "PAUSE"
+     */
+    public String getPauseCommand() {
+        return pauseCommand;
+    }
+
+    /**
+     * @return Command to put a paused application back into rotation, defaults to "RESUME"
+     */
+    public String getResumeCommand() {
+        return resumeCommand;
+    }
+
+    /**
+     * @return Command to shut down a single listener group, sent as "&lt;command&gt; group=&lt;name&gt;", defaults to "SHUTDOWN"
+     */
+    public String getShutdownGroupCommand() {
+        return shutdownGroupCommand;
+    }
+
+    /**
+     * @return Command to describe what shutdown would do without doing it, defaults to "DRY_RUN"
+     */
+    public String getDryRunCommand() {
+        return dryRunCommand;
+    }
     
     @Override
     public int hashCode() {
         final int prime = 31;
         int result = 1;
+        result = prime * result + ((controlDirectory == null) ? 0 : controlDirectory.hashCode());
+        result = prime * result + ((dryRunCommand == null) ? 0 : dryRunCommand.hashCode());
+        result = prime * result + ((handoffCommand == null) ? 0 : handoffCommand.hashCode());
+        result = prime * result + handoffTimeout;
+        result = prime * result + ((historyFile == null) ? 0 : historyFile.hashCode());
         result = prime * result + ((host == null) ? 0 : host.hashCode());
+        result = prime * result + maxCommandLength;
+        result = prime * result + maxConnections;
+        result = prime * result + ((pauseCommand == null) ? 0 : pauseCommand.hashCode());
         result = prime * result + port;
+        result = prime * result + ((portFile == null) ? 0 : portFile.hashCode());
+        result = prime * result + portRangeEnd;
+        result = prime * result + readTimeout;
+        result = prime * result + ((resumeCommand == null) ? 0 : resumeCommand.hashCode());
+        result = prime * result + ((shutdownGroupCommand == null) ? 0 : shutdownGroupCommand.hashCode());
         result = prime * result + ((shutdownNoWaitCommand == null) ? 0 : shutdownNoWaitCommand.hashCode());
         result = prime * result + ((shutdownWaitCommand == null) ? 0 : shutdownWaitCommand.hashCode());
+        result = prime * result + (socketEnabled ? 1231 : 1237);
         result = prime * result + ((statusCommand == null) ? 0 : statusCommand.hashCode());
+        result = prime * result + ((statusFile == null) ? 0 : statusFile.hashCode());
+        result = prime * result + statusInterval;
+        result = prime * result + ((traceFile == null) ? 0 : traceFile.hashCode());
         return result;
     }
 
@@ -153,6 +366,38 @@ public final class ShutdownConfiguration {
             return false;
         }
         ShutdownConfiguration other = (ShutdownConfiguration) obj;
+        if (controlDirectory == null) {
+            if (other.controlDirectory != null) {
+                return false;
+            }
+        }
+        else if (!controlDirectory.equals(other.controlDirectory)) {
+            return false;
+        }
+        if (dryRunCommand == null) {
+            if (other.dryRunCommand != null) {
+                return false;
+            }
+        }
+        else if (!dryRunCommand.equals(other.dryRunCommand)) {
+            return false;
+        }
+        if (historyFile == null) {
+            if (other.historyFile != null) {
+                return false;
+            }
+        }
+        else if (!historyFile.equals(other.historyFile)) {
+            return false;
+        }
+        if (handoffCommand == null) {
+            if (other.handoffCommand != null) {
+                return false;
+            }
+        }
+        else if (!handoffCommand.equals(other.handoffCommand)) {
+            return false;
+        }
         if (host == null) {
             if (other.host != null) {
                 return false;
@@ -161,9 +406,56 @@ public final class ShutdownConfiguration {
         else if (!host.equals(other.host)) {
             return false;
         }
+        if (maxCommandLength != other.maxCommandLength) {
+            return false;
+        }
+        if (maxConnections != other.maxConnections) {
+            return false;
+        }
+        if (pauseCommand == null) {
+            if (other.pauseCommand != null) {
+                return false;
+            }
+        }
+        else if (!pauseCommand.equals(other.pauseCommand)) {
+            return false;
+        }
         if (port != other.port) {
             return false;
         }
+        if (portFile == null) {
+            if (other.portFile != null) {
+                return false;
+            }
+        }
+        else if (!portFile.equals(other.portFile)) {
+            return false;
+        }
+        if (portRangeEnd != other.portRangeEnd) {
+            return false;
+        }
+        if (readTimeout != other.readTimeout) {
+            return false;
+        }
+        if (handoffTimeout != other.handoffTimeout) {
+            return false;
+        }
+        if (resumeCommand == null) {
+            if (other.resumeCommand != null) {
+                return false;
+            }
+        }
+        else if (!resumeCommand.equals(other.resumeCommand)) {
+            return false;
+        }
+        if (shutdownGroupCommand == null) {
+            if (other.shutdownGroupCommand != null) {
+                return false;
+            }
+        }
+        else if (!shutdownGroupCommand.equals(other.shutdownGroupCommand)) {
+            return false;
+        }
         if (shutdownNoWaitCommand == null) {
             if (other.shutdownNoWaitCommand != null) {
                 return false;
@@ -180,6 +472,9 @@ public final class ShutdownConfiguration {
         else if (!shutdownWaitCommand.equals(other.shutdownWaitCommand)) {
             return false;
         }
+        if (socketEnabled != other.socketEnabled) {
+            return false;
+        }
         if (statusCommand == null) {
             if (other.statusCommand != null) {
                 return false;
@@ -188,13 +483,36 @@ public final class ShutdownConfiguration {
         else if (!statusCommand.equals(other.statusCommand)) {
             return false;
         }
+        if (statusFile == null) {
+            if (other.statusFile != null) {
+                return false;
+            }
+        }
+        else if (!statusFile.equals(other.statusFile)) {
+            return false;
+        }
+        if (statusInterval != other.statusInterval) {
+            return false;
+        }
+        if (traceFile == null) {
+            if (other.traceFile != null) {
+                return false;
+            }
+        }
+        else if (!traceFile.equals(other.traceFile)) {
+            return false;
+        }
         return true;
     }
 
     @Override
     public String toString() {
-        return "ShutdownConfiguration [host=" + host + ", port=" + port + ", shutdownNoWaitCommand="
+        return "ShutdownConfiguration [host=" + host + ", port=" + port + ", portRangeEnd=" + portRangeEnd + ", portFile=" + portFile
+                + ", maxCommandLength=" + maxCommandLength + ", readTimeout=" + readTimeout + ", maxConnections=" + maxConnections + ", handoffTimeout=" + handoffTimeout
+                + ", socketEnabled=" + socketEnabled + ", controlDirectory=" + controlDirectory + ", traceFile=" + traceFile + ", historyFile=" + historyFile + ", statusFile=" + statusFile + ", statusInterval=" + statusInterval + ", shutdownNoWaitCommand="
                 + shutdownNoWaitCommand + ", shutdownWaitCommand=" + shutdownWaitCommand + ", statusCommand="
-                + statusCommand + "]";
+                + statusCommand + ", handoffCommand=" + handoffCommand
+                + ", pauseCommand=" + pauseCommand + ", resumeCommand=" + resumeCommand + ", shutdownGroupCommand=" + shutdownGroupCommand
+                + ", dryRunCommand=" + dryRunCommand + "]";
     }
 }
@@ -20,26 +20,46 @@
  */
 package com.googlecode.shutdownlistener;
 
-import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.io.PrintWriter;
+import java.net.ConnectException;
+import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
-import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.googlecode.shutdownlistener.ControlCommandReader.CommandTooLongException;
+
 /**
  * Provides a shutdown socket service for an application. When the class is created and {@link #afterPropertiesSet()} is called
  * a socket is opened and monitored for shutdown requests. When a shutdown request occurs registered shutdown listeners are called
@@ -52,14 +72,37 @@ import org.slf4j.LoggerFactory;
  * @version $Revision$
  */
 public class ShutdownHandler {
+    static final String HANDOFF_COMPLETE = "Handoff Complete";
+    
     protected final Logger logger = LoggerFactory.getLogger(this.getClass());
     
     private final CountDownLatch shutdownLatch = new CountDownLatch(1);
     private final AtomicBoolean shutdownRequested = new AtomicBoolean(false);
     private final AtomicBoolean shutdownComplete = new AtomicBoolean(false);
+    private final AtomicReference<LifecycleState> state = new AtomicReference<LifecycleState>(LifecycleState.STARTING);
+    private final ShutdownTrace shutdownTrace = new ShutdownTrace();
+    private final Map<String, Long> shutdownDurations = Collections.synchronizedMap(new LinkedHashMap<String, Long>());
+    private final Map<ShutdownListener, String> listenerKeys = new IdentityHashMap<ShutdownListener, String>();
+    private final Set<String> usedListenerKeys = new HashSet<String>();
+    private final List<String> shutdownFailures = Collections.synchronizedList(new ArrayList<String>());
+    private volatile Thread shutdownThread;
+    private volatile ShutdownResult shutdownResult;
+    private volatile StatusPage statusPage;
+    private volatile int shutdownListenersTotal = 0;
+    private final AtomicInteger shutdownListenersCompleted = new AtomicInteger(0);
+    private volatile Map<String, Long> startupTimings = Collections.emptyMap();
+    private volatile int boundPort = -1;
 
     protected final Collection<ShutdownListener> internalShutdownListeners = new ArrayList<ShutdownListener>();
     protected Collection<ShutdownListener> shutdownListeners = null;
+    protected Collection<StartupListener> startupListeners = null;
+    private final Object groupLock = new Object();
+    private final Set<String> stoppedGroups = new CopyOnWriteArraySet<String>();
+    //Guarded by groupLock
+    private int runningGroupShutdowns = 0;
+    private int startupThreads = 4;
+    private boolean deferStartup = false;
+    private long shutdownHookTimeout = 30000;
 
     
     /**
@@ -71,6 +114,9 @@ public class ShutdownHandler {
         }
         else {
             this.shutdownListeners = new ArrayList<ShutdownListener>(shutdownListeners);
+            for (final ShutdownListener shutdownListener : this.shutdownListeners) {
+                this.getListenerKey(shutdownListener);
+            }
         }
     }
     public void registerShutdownListener(ShutdownListener shutdownListener) {
@@ -78,22 +124,136 @@ public class ShutdownHandler {
             this.shutdownListeners = new ArrayList<ShutdownListener>();
         }
         this.shutdownListeners.add(shutdownListener);
+        this.getListenerKey(shutdownListener);
     }
     public Collection<ShutdownListener> getShutdownListeners() {
         return this.shutdownListeners;
     }
     
+    /**
+     * {@link StartupListener}s to run before the handler reports {@link LifecycleState#READY}
+     */
+    public void setStartupListeners(Collection<StartupListener> startupListeners) {
+        if (startupListeners == null) {
+            this.startupListeners = null;
+        }
+        else {
+            this.startupListeners = new ArrayList<StartupListener>(startupListeners);
+        }
+    }
+    public void registerStartupListener(StartupListener startupListener) {
+        if (this.startupListeners == null) {
+            this.startupListeners = new ArrayList<StartupListener>();
+        }
+        this.startupListeners.add(startupListener);
+    }
+    public Collection<StartupListener> getStartupListeners() {
+        return this.startupListeners;
+    }
+    
+    /**
+     * Maximum number of {@link StartupListener}s to run in parallel, defaults to 4
+     */
+    public void setStartupThreads(int startupThreads) {
+        this.startupThreads = startupThreads;
+    }
+    
+    /**
+     * If true {@link #start()} only opens the shutdown socket and {@link #startup()} must be called once the
+     * application is ready for the startup listeners to run, defaults to false
+     */
+    public void setDeferStartup(boolean deferStartup) {
+        this.deferStartup = deferStartup;
+    }
+    
+    /**
+     * Maximum time in milliseconds the JVM shutdown hook waits for a shutdown already in progress before letting the
+     * JVM exit, defaults to 30000. Bounded so a {@link ShutdownListener} that calls {@link System#exit(int)} can't
+     * deadlock the JVM, the hook would otherwise wait for the listener while the listener waits for the hooks.
+     */
+    public void setShutdownHookTimeout(long shutdownHookTimeout) {
+        this.shutdownHookTimeout = shutdownHookTimeout;
+    }
+    
+    /**
+     * @return Trace of the shutdown, listeners are recorded automatically and other components can add their own spans
+     */
+    public final ShutdownTrace getShutdownTrace() {
+        return this.shutdownTrace;
+    }
+    
+    /**
+     * Writes the {@link #getShutdownTrace()} to the configured trace file, does nothing if there is no trace file.
+     * Called when shutdown completes, code that records spans after shutdown should call it again once done.
+     */
+    public final void writeShutdownTrace() {
+        final String traceFile = ShutdownConfiguration.getInstance().getTraceFile();
+        if (traceFile == null) {
+            return;
+        }
+        
+        try {
+            this.shutdownTrace.write(new File(traceFile));
+            this.logger.info("Wrote {} shutdown trace spans to '{}'", this.shutdownTrace.getSpanCount(), traceFile);
+        }
+        catch (IOException ioe) {
+            this.logger.warn("Failed to write shutdown trace to '" + traceFile + "'", ioe);
+        }
+    }
+    
+    /**
+     * @return Port the shutdown socket is bound to, -1 if {@link #start()} has not been called
+     */
+    public final int getBoundPort() {
+        return this.boundPort;
+    }
+    
+    /**
+     * @return Current lifecycle state of the handler
+     */
+    public final LifecycleState getState() {
+        return this.state.get();
+    }
+    
+    /**
+     * @return Time in milliseconds each {@link StartupListener} took, in completion order. Empty until {@link #startup()} completes.
+     */
+    public final Map<String, Long> getStartupTimings() {
+        return this.startupTimings;
+    }
+    
     public final void start() throws Exception {
         final ShutdownConfiguration config = ShutdownConfiguration.getInstance();
         
-        final ShutdownSocketListener shutdownSocketListener = new ShutdownSocketListener(config.getHost(), config.getPort());
+        if (config.isSocketEnabled()) {
+            final ShutdownSocketListener shutdownSocketListener = new ShutdownSocketListener(config.getHost(), config.getPort(), config.getPortRangeEnd(), config.getPortFile(), config.getMaxConnections());
+            this.boundPort = shutdownSocketListener.port;
+            
+            final Thread shutdownSocketThread = new Thread(shutdownSocketListener, "ShutdownListener-" + config.getHost() + ":" + shutdownSocketListener.port);
+            shutdownSocketThread.setDaemon(true);
+            shutdownSocketThread.start();
+            
+            //Add the listener to the shutdown list 
+            this.internalShutdownListeners.add(shutdownSocketListener);
+        }
         
-        final Thread shutdownSocketThread = new Thread(shutdownSocketListener, "ShutdownListener-" + config.getHost() + ":" + config.getPort());
-        shutdownSocketThread.setDaemon(true);
-        shutdownSocketThread.start();
+        if (config.getControlDirectory() != null) {
+            final FileControlChannel fileControlChannel = new FileControlChannel(this, new File(config.getControlDirectory()));
+            
+            final Thread fileControlThread = new Thread(fileControlChannel, "ShutdownListener-" + config.getControlDirectory());
+            fileControlThread.setDaemon(true);
+            fileControlThread.start();
+            
+            this.internalShutdownListeners.add(fileControlChannel);
+        }
         
-        //Add the listener to the shutdown list 
-        this.internalShutdownListeners.add(shutdownSocketListener);
+        if (config.getStatusFile() != null) {
+            this.statusPage = new StatusPage(this, new File(config.getStatusFile()), config.getStatusInterval());
+            
+            final Thread statusPageThread = new Thread(this.statusPage, "ShutdownListener-StatusPage");
+            statusPageThread.setDaemon(true);
+            statusPageThread.start();
+        }
         
         //Register a shutdown handler
         final Thread shutdownHook = new Thread(new ShutdownHookHandler(), "JVM Shutdown Hook");
@@ -102,8 +262,14 @@ public class ShutdownHandler {
         
         this.internalShutdownListeners.add(new ShutdownListener() {
             public void shutdown() {
-                Runtime.getRuntime().removeShutdownHook(shutdownHook);
-                logger.debug("Removed JVM shutdown hook");
+                try {
+                    Runtime.getRuntime().removeShutdownHook(shutdownHook);
+                    logger.debug("Removed JVM shutdown hook");
+                }
+                catch (IllegalStateException ise) {
+                    //The JVM is already exiting, usually because the hook itself triggered this shutdown
+                    logger.debug("JVM is shutting down, hook not removed");
+                }
             }
 
             @Override
@@ -111,6 +277,437 @@ public class ShutdownHandler {
                 return "JVM Shutdown Hook Remover";
             }
         });
+        
+        if (!this.deferStartup) {
+            this.startup();
+        }
+    }
+    
+    /**
+     * Runs the {@link StartupListener}s in parallel, respecting their declared dependencies, and then moves the
+     * handler to {@link LifecycleState#READY}. Called by {@link #start()} unless startup is deferred, calls after the
+     * handler is ready are ignored.
+     * 
+     * @throws Exception The first exception thrown by a startup listener, the handler stays {@link LifecycleState#STARTING}
+     */
+    public final synchronized void startup() throws Exception {
+        if (this.state.get() != LifecycleState.STARTING) {
+            return;
+        }
+        
+        if (this.startupListeners != null && !this.startupListeners.isEmpty()) {
+            final long start = System.currentTimeMillis();
+            final Map<String, Long> timings = new StartupRunner(this.logger, this.startupThreads).run(this.startupListeners);
+            this.startupTimings = Collections.unmodifiableMap(timings);
+            this.logger.info("Ran {} StartupListeners in {}ms: {}", new Object[] { timings.size(), System.currentTimeMillis() - start, timings });
+        }
+        
+        if (this.state.compareAndSet(LifecycleState.STARTING, LifecycleState.READY)) {
+            this.logger.info("Application is ready");
+            this.publishStatus();
+        }
+    }
+    
+    /**
+     * Starts the handler as the replacement for an already running instance. The running instance is sent the
+     * handoff command and this call blocks until it has stopped accepting and completely shut down, after which
+     * {@link #start()} is called to take over the shutdown socket. The caller should have already bound its
+     * application ports using {@link ReusePortSupport} and be ready to serve traffic. If there is no running
+     * instance the handler is simply started.
+     * 
+     * @throws IllegalStateException If the running instance doesn't complete the handoff within the configured handoffTimeout
+     */
+    public final void startWithHandoff() throws Exception {
+        final ShutdownConfiguration config = ShutdownConfiguration.getInstance();
+        
+        String instance = ShutdownUtility.getHost(config) + ":" + config.getPort();
+        try {
+            instance = ShutdownUtility.getHost(config) + ":" + ShutdownUtility.getPort(config);
+            this.logger.info("Requesting handoff from instance on {}", instance);
+            final String response;
+            try {
+                response = ShutdownUtility.sendCommand(config, config.getHandoffCommand(), config.getHandoffTimeout(), new PrintStream(new LoggingOutputStream()));
+            }
+            catch (SocketTimeoutException ste) {
+                throw new IllegalStateException("Handoff from instance on " + instance + " did not complete within " + 
+                        config.getHandoffTimeout() + "ms, it may be hung and need to be stopped before this instance can start", ste);
+            }
+            if (response == null || !response.endsWith(HANDOFF_COMPLETE)) {
+                throw new IllegalStateException("Handoff from instance on " + instance + " did not complete, last response: " + response);
+            }
+            this.logger.info("Handoff from instance on {} complete", instance);
+        }
+        catch (ConnectException ce) {
+            this.logger.info("No instance running on {}, starting without handoff: {}", instance, ce.getMessage());
+        }
+        
+        this.start();
+    }
+    
+    /**
+     * Calls {@link HandoffListener#stopAccepting()} on all registered handoff listeners and then calls {@link #shutdown()}
+     */
+    public final void handoff() {
+        if (this.shutdownRequested.get()) {
+            this.logger.info("Already shutting down, handoff will wait for shutdown to complete");
+        }
+        else if (this.shutdownListeners != null) {
+            final List<ShutdownListener> shutdownListenersClone = new ArrayList<ShutdownListener>(this.shutdownListeners);
+            this.sortShutdownListeners(shutdownListenersClone);
+            for (final ShutdownListener shutdownListener : shutdownListenersClone) {
+                if (shutdownListener instanceof HandoffListener) {
+                    final ShutdownTrace.Span span = this.shutdownTrace.begin("Stop accepting " + shutdownListener, "handoff");
+                    try {
+                        this.logger.info("Stopping accepting for handoff: {}", shutdownListener);
+                        ((HandoffListener) shutdownListener).stopAccepting();
+                    }
+                    catch (Exception e) {
+                        this.logger.warn("HandoffListener " + shutdownListener + " threw an exception, continuing with handoff", e);
+                        span.arg("exception", e);
+                    }
+                    finally {
+                        span.end();
+                    }
+                }
+            }
+        }
+        
+        this.shutdown();
+        this.waitForShutdown();
+    }
+    
+    /**
+     * Takes the application out of rotation without shutting it down. Moves the handler from {@link LifecycleState#READY}
+     * to {@link LifecycleState#PAUSED} and calls {@link PauseListener#pause()} on the registered pause listeners.
+     * 
+     * @return true if the handler was paused, false if it was not {@link LifecycleState#READY}
+     */
+    public final synchronized boolean pause() {
+        if (!this.state.compareAndSet(LifecycleState.READY, LifecycleState.PAUSED)) {
+            this.logger.info("Cannot pause while {}", this.getStatus());
+            return false;
+        }
+        this.publishStatus();
+        
+        for (final PauseListener pauseListener : this.getPauseListeners()) {
+            try {
+                this.logger.info("Pausing PauseListener: {}", pauseListener);
+                pauseListener.pause();
+            }
+            catch (Exception e) {
+                this.logger.warn("PauseListener " + pauseListener + " threw an exception, continuing with pause", e);
+            }
+        }
+        
+        this.logger.info("Application is paused");
+        return true;
+    }
+    
+    /**
+     * Puts a paused application back into rotation. Calls {@link PauseListener#resume()} on the registered pause
+     * listeners, in the reverse of the order they were paused, and moves the handler back to {@link LifecycleState#READY}.
+     * 
+     * @return true if the handler was resumed, false if it was not {@link LifecycleState#PAUSED}
+     */
+    public final synchronized boolean resume() {
+        if (this.state.get() != LifecycleState.PAUSED) {
+            this.logger.info("Cannot resume while {}", this.getStatus());
+            return false;
+        }
+        
+        final List<PauseListener> pauseListeners = this.getPauseListeners();
+        Collections.reverse(pauseListeners);
+        for (final PauseListener pauseListener : pauseListeners) {
+            try {
+                this.logger.info("Resuming PauseListener: {}", pauseListener);
+                pauseListener.resume();
+            }
+            catch (Exception e) {
+                this.logger.warn("PauseListener " + pauseListener + " threw an exception, continuing with resume", e);
+            }
+        }
+        
+        //Shutdown may have started while resuming
+        if (this.state.compareAndSet(LifecycleState.PAUSED, LifecycleState.READY)) {
+            this.logger.info("Application is resumed");
+            this.publishStatus();
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * @return The {@link PauseListener}s in shutdown order, listeners in stopped groups have shut down and are skipped
+     */
+    private List<PauseListener> getPauseListeners() {
+        final List<ShutdownListener> activeShutdownListeners = new ArrayList<ShutdownListener>(this.getActiveShutdownListeners());
+        this.sortShutdownListeners(activeShutdownListeners);
+        
+        final List<PauseListener> pauseListeners = new ArrayList<PauseListener>();
+        for (final ShutdownListener shutdownListener : activeShutdownListeners) {
+            if (shutdownListener instanceof PauseListener) {
+                pauseListeners.add((PauseListener) shutdownListener);
+            }
+        }
+        return pauseListeners;
+    }
+    
+    /**
+     * @return Description of the current state of the handler, as reported by the status command
+     */
+    public String getStatus() {
+        final String status = this.state.get().getDescription();
+        if (this.stoppedGroups.isEmpty()) {
+            return status;
+        }
+        return status + " (stopped groups: " + this.stoppedGroups + ")";
+    }
+    
+    /**
+     * @return Names of the listener groups stopped by {@link #shutdownGroup(String)}
+     */
+    public final Set<String> getStoppedGroups() {
+        return Collections.unmodifiableSet(this.stoppedGroups);
+    }
+    
+    /**
+     * Runs the {@link GroupedShutdownListener}s in the named group, in order, without shutting down the rest of
+     * the application. The group counts as stopped as soon as its listeners start, a later {@link #shutdown()} skips
+     * the listeners in stopped groups and waits for a group shutdown still in progress.
+     * 
+     * @return true if the group was shut down, false if it has no listeners, was already stopped or the application is shutting down
+     */
+    public final boolean shutdownGroup(String group) {
+        final List<ShutdownListener> groupListeners = new ArrayList<ShutdownListener>();
+        
+        //Claim the group under the lock but run its listeners outside it so status, plans and other groups aren't blocked
+        synchronized (this.groupLock) {
+            if (this.shutdownRequested.get()) {
+                this.logger.info("Already shutting down, ignoring request to shut down group '{}'", group);
+                return false;
+            }
+            if (this.stoppedGroups.contains(group)) {
+                this.logger.info("Group '{}' already shut down, ignoring duplicate request", group);
+                return false;
+            }
+            
+            if (this.shutdownListeners != null) {
+                for (final ShutdownListener shutdownListener : this.shutdownListeners) {
+                    if (shutdownListener instanceof GroupedShutdownListener && group.equals(((GroupedShutdownListener) shutdownListener).getShutdownGroup())) {
+                        groupListeners.add(shutdownListener);
+                    }
+                }
+            }
+            if (groupListeners.isEmpty()) {
+                this.logger.info("No ShutdownListeners in group '{}'", group);
+                return false;
+            }
+            
+            this.stoppedGroups.add(group);
+            this.runningGroupShutdowns++;
+        }
+        
+        try {
+            this.logger.info("Shutting down group '{}'", group);
+            final ShutdownTrace.Span span = this.shutdownTrace.begin("Shutdown group " + group, "group");
+            try {
+                this.runShutdownHandlers(groupListeners);
+            }
+            finally {
+                span.end();
+            }
+            this.logger.info("Group '{}' shut down", group);
+            return true;
+        }
+        finally {
+            synchronized (this.groupLock) {
+                this.runningGroupShutdowns--;
+                this.groupLock.notifyAll();
+            }
+        }
+    }
+    
+    /**
+     * Waits for group shutdowns that started before {@link #shutdown()} so their listeners never overlap the full shutdown
+     */
+    private void waitForGroupShutdowns() {
+        synchronized (this.groupLock) {
+            while (this.runningGroupShutdowns > 0) {
+                this.logger.info("Waiting for {} group shutdowns in progress", this.runningGroupShutdowns);
+                try {
+                    this.groupLock.wait();
+                }
+                catch (InterruptedException e) {
+                    this.logger.warn("Interrupted waiting for group shutdowns, continuing with shutdown", e);
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+    
+    /**
+     * @return The registered {@link ShutdownListener}s that are not in a stopped or stopping group
+     */
+    private Collection<ShutdownListener> getActiveShutdownListeners() {
+        synchronized (this.groupLock) {
+            final List<ShutdownListener> activeShutdownListeners = new ArrayList<ShutdownListener>();
+            if (this.shutdownListeners != null) {
+                for (final ShutdownListener shutdownListener : this.shutdownListeners) {
+                    if (!(shutdownListener instanceof GroupedShutdownListener) 
+                            || !this.stoppedGroups.contains(((GroupedShutdownListener) shutdownListener).getShutdownGroup())) {
+                        activeShutdownListeners.add(shutdownListener);
+                    }
+                }
+            }
+            return activeShutdownListeners;
+        }
+    }
+    
+    /**
+     * Resolves what {@link #shutdown()} would do if called now without calling any listeners. Estimates come from the
+     * durations recorded in the configured history file.
+     */
+    public final ShutdownPlan planShutdown() {
+        Map<String, Long> history = Collections.emptyMap();
+        final String historyFile = ShutdownConfiguration.getInstance().getHistoryFile();
+        if (historyFile != null) {
+            try {
+                history = ShutdownHistory.load(new File(historyFile));
+            }
+            catch (IOException ioe) {
+                this.logger.warn("Failed to read shutdown history from '" + historyFile + "', plan will not have estimates", ioe);
+            }
+        }
+        
+        final List<ShutdownListener> shutdownListenersClone = new ArrayList<ShutdownListener>();
+        if (this.shutdownListeners != null) {
+            shutdownListenersClone.addAll(this.shutdownListeners);
+        }
+        this.sortShutdownListeners(shutdownListenersClone);
+        final Collection<ShutdownListener> activeShutdownListeners = this.getActiveShutdownListeners();
+        
+        final List<ShutdownPlan.Step> steps = new ArrayList<ShutdownPlan.Step>();
+        this.addPlanSteps(steps, shutdownListenersClone, activeShutdownListeners, false, history);
+        
+        final List<ShutdownListener> internalShutdownListenersClone = new ArrayList<ShutdownListener>(this.internalShutdownListeners);
+        this.sortShutdownListeners(internalShutdownListenersClone);
+        this.addPlanSteps(steps, internalShutdownListenersClone, internalShutdownListenersClone, true, history);
+        
+        return new ShutdownPlan(steps);
+    }
+    
+    private void addPlanSteps(List<ShutdownPlan.Step> steps, List<ShutdownListener> shutdownListeners, 
+            Collection<ShutdownListener> activeShutdownListeners, boolean internal, Map<String, Long> history) {
+        
+        for (final ShutdownListener shutdownListener : shutdownListeners) {
+            
+            final String group;
+            if (shutdownListener instanceof GroupedShutdownListener) {
+                group = ((GroupedShutdownListener) shutdownListener).getShutdownGroup();
+            }
+            else {
+                group = null;
+            }
+            
+            final long timeout;
+            if (shutdownListener instanceof BoundedShutdownListener) {
+                timeout = ((BoundedShutdownListener) shutdownListener).getShutdownTimeout();
+            }
+            else {
+                timeout = -1;
+            }
+            
+            final Long estimate = history.get(this.getListenerKey(shutdownListener));
+            steps.add(new ShutdownPlan.Step(steps.size() + 1, internal, String.valueOf(shutdownListener), group, timeout, 
+                    estimate != null ? estimate : -1, !activeShutdownListeners.contains(shutdownListener)));
+        }
+    }
+    
+    /**
+     * Key identifying the listener in the shutdown history and results. Keys are the class name, assigned once per
+     * listener when it is registered so they are stable across restarts, later listeners of an already used class
+     * get a per-class counter appended in registration order (#2, #3, ...).
+     */
+    private String getListenerKey(ShutdownListener shutdownListener) {
+        synchronized (this.listenerKeys) {
+            String key = this.listenerKeys.get(shutdownListener);
+            if (key == null) {
+                final String className = shutdownListener.getClass().getName();
+                key = className;
+                for (int count = 2; this.usedListenerKeys.contains(key); count++) {
+                    key = className + "#" + count;
+                }
+                this.usedListenerKeys.add(key);
+                this.listenerKeys.put(shutdownListener, key);
+            }
+            return key;
+        }
+    }
+    
+    /**
+     * Blends the listener durations of this shutdown into the configured history file
+     */
+    private void recordShutdownHistory() {
+        final String historyFile = ShutdownConfiguration.getInstance().getHistoryFile();
+        if (historyFile == null) {
+            return;
+        }
+        
+        try {
+            synchronized (this.shutdownDurations) {
+                ShutdownHistory.record(new File(historyFile), this.shutdownDurations);
+            }
+            this.logger.debug("Recorded shutdown durations to '{}'", historyFile);
+        }
+        catch (IOException ioe) {
+            this.logger.warn("Failed to record shutdown history to '" + historyFile + "'", ioe);
+        }
+    }
+    
+    /**
+     * @return true once {@link #shutdown()} has been called
+     */
+    public final boolean isShutdownRequested() {
+        return this.shutdownRequested.get();
+    }
+    
+    /**
+     * @return true once {@link #shutdown()} has completed
+     */
+    public final boolean isShutdownComplete() {
+        return this.shutdownComplete.get();
+    }
+    
+    /**
+     * @return Number of listeners the shutdown in progress will call, 0 until shutdown starts
+     */
+    final int getShutdownListenersTotal() {
+        return this.shutdownListenersTotal;
+    }
+    
+    /**
+     * @return Number of listeners the shutdown in progress has called
+     */
+    final int getShutdownListenersCompleted() {
+        return this.shutdownListenersCompleted.get();
+    }
+    
+    /**
+     * Updates the status page if one is configured, never blocks
+     */
+    private void publishStatus() {
+        final StatusPage statusPage = this.statusPage;
+        if (statusPage != null) {
+            statusPage.publish();
+        }
+    }
+    
+    /**
+     * @return The result returned by {@link #shutdownWithResult()}, null until shutdown completes
+     */
+    public final ShutdownResult getShutdownResult() {
+        return this.shutdownResult;
     }
     
     /**
@@ -131,32 +728,192 @@ public class ShutdownHandler {
     }
 
     /**
-     * Calls shutdown hooks and cleans up shutdown listener code, notifies all waiting threads on completion
+     * Calls shutdown hooks and cleans up shutdown listener code, notifies all waiting threads on completion. Concurrent
+     * calls don't run the listeners again, they wait for the shutdown in progress to complete. A {@link ShutdownListener}
+     * that calls shutdown from the shutdown thread returns immediately, listeners must not wait on another thread that
+     * calls shutdown as that thread will wait for the listener.
      */
     public final void shutdown() {
+        this.shutdown(-1);
+    }
+    
+    /**
+     * Same as {@link #shutdown()} but returns the result of the shutdown, concurrent calls all get the result of the
+     * one shutdown that ran.
+     * 
+     * @return The result of the shutdown, null if called from the shutdown thread or interrupted while waiting
+     */
+    public final ShutdownResult shutdownWithResult() {
+        return this.shutdown(-1);
+    }
+    
+    /**
+     * @param waitTimeout Maximum milliseconds to wait for a shutdown already in progress, -1 to wait until it completes
+     */
+    private ShutdownResult shutdown(long waitTimeout) {
         final boolean shuttingDown = this.shutdownRequested.getAndSet(true);
         if (shuttingDown) {
             if (this.shutdownComplete.get()) {
-                logger.info("Already shut down, ignoring duplicate request");
+                logger.info("Already shut down, returning the completed shutdown's result");
+            }
+            else if (Thread.currentThread() == this.shutdownThread) {
+                logger.info("Shutdown requested by a ShutdownListener during shutdown, ignoring re-entrant request");
+                return null;
+            }
+            else if (waitTimeout < 0) {
+                logger.info("Already shutting down, waiting for the shutdown in progress to complete");
+                this.waitForShutdown();
             }
             else {
-                logger.info("Already shutting down, ignoring duplicate request");
+                logger.info("Already shutting down, waiting up to {}ms for the shutdown in progress to complete", waitTimeout);
+                try {
+                    if (!this.shutdownLatch.await(waitTimeout, TimeUnit.MILLISECONDS)) {
+                        logger.warn("Shutdown in progress did not complete within {}ms, no longer waiting", waitTimeout);
+                    }
+                }
+                catch (InterruptedException e) {
+                    this.logger.warn("Interrupted waiting for shutdown condition", e);
+                }
             }
-            return;
+            return this.shutdownResult;
         }
-    
-        this.preShutdownListeners();
+        this.shutdownThread = Thread.currentThread();
+        final long start = System.currentTimeMillis();
+        this.state.set(LifecycleState.SHUTTING_DOWN);
+        final Collection<ShutdownListener> activeShutdownListeners = this.getActiveShutdownListeners();
+        this.shutdownListenersTotal = activeShutdownListeners.size() + this.internalShutdownListeners.size();
+        this.publishStatus();
+        final ShutdownTrace.Span shutdownSpan = this.shutdownTrace.begin("Shutdown", "handler");
         
-        //Run external shutdown tasks
-        this.runShutdownHandlers(this.shutdownListeners);
-        
-        //Run internal shutdown tasks
-        this.runShutdownHandlers(this.internalShutdownListeners);
+        //Waiters must always be released, even if a phase fails
+        try {
+            this.waitForGroupShutdowns();
+            
+            ShutdownTrace.Span span = this.shutdownTrace.begin("Pre shutdown", "handler");
+            this.preShutdownListeners();
+            span.end();
+            
+            //Run external shutdown tasks
+            span = this.shutdownTrace.begin("ShutdownListeners", "handler");
+            this.runShutdownHandlers(activeShutdownListeners);
+            span.end();
+            
+            //Run internal shutdown tasks
+            span = this.shutdownTrace.begin("Internal ShutdownListeners", "handler");
+            this.runShutdownHandlers(this.internalShutdownListeners);
+            span.end();
+            
+            span = this.shutdownTrace.begin("Post shutdown", "handler");
+            this.postShutdownListeners();
+            span.end();
+            
+            shutdownSpan.end();
+            this.writeShutdownTrace();
+            this.recordShutdownHistory();
+        }
+        catch (RuntimeException re) {
+            this.shutdownFailures.add("Shutdown aborted: " + re);
+            throw re;
+        }
+        catch (Error e) {
+            this.shutdownFailures.add("Shutdown aborted: " + e);
+            throw e;
+        }
+        finally {
+            final ShutdownResult result;
+            synchronized (this.shutdownDurations) {
+                result = new ShutdownResult(start, System.currentTimeMillis() - start, this.shutdownDurations, this.shutdownFailures);
+            }
+            this.shutdownResult = result;
+            this.logger.info("{}", result);
+            
+            this.state.set(LifecycleState.SHUT_DOWN);
+            this.shutdownComplete.set(true);
+            this.shutdownLatch.countDown();
+            this.publishStatus();
+        }
         
-        this.postShutdownListeners();
+        return this.shutdownResult;
+    }
+    
+    /**
+     * Executes a control command, writing the responses to the writer. The writer is flushed before any long running
+     * operation so clients see progress. Used by every control channel so they support the same command set.
+     * 
+     * @return true if the command was a no-wait shutdown, the caller must call {@link #shutdown()} once it has closed its channel
+     */
+    final boolean executeCommand(String command, PrintWriter writer) {
+        final ShutdownConfiguration config = ShutdownConfiguration.getInstance();
+        if (config.getShutdownWaitCommand().equals(command)) {
+            this.logger.info("Recieved request for shutdown");
+            writer.println(new Date() + ": Starting Shutdown and waiting");
+            writer.flush();
+            final ShutdownResult result = this.shutdownWithResult();
+            if (result != null) {
+                writer.println(new Date() + ": " + result);
+            }
+            writer.println(new Date() + ": Shutdown Complete");
+        }
+        else if (config.getShutdownNoWaitCommand().equals(command)) {
+            this.logger.info("Recieved request for shutdown");
+            writer.println(new Date() + ": Starting Shutdown and disconnecting shutdown socket");
+            return true;
+        }
+        else if (config.getHandoffCommand().equals(command)) {
+            this.logger.info("Recieved request for handoff");
+            writer.println(new Date() + ": Starting Handoff and waiting");
+            writer.flush();
+            this.handoff();
+            writer.println(new Date() + ": " + HANDOFF_COMPLETE);
+        }
+        else if (config.getPauseCommand().equals(command)) {
+            this.logger.info("Recieved request for pause");
+            writer.println(new Date() + ": Pausing");
+            writer.flush();
+            if (this.pause()) {
+                writer.println(new Date() + ": Paused");
+            }
+            else {
+                writer.println(new Date() + ": Cannot pause while " + this.getStatus());
+            }
+        }
+        else if (config.getResumeCommand().equals(command)) {
+            this.logger.info("Recieved request for resume");
+            writer.println(new Date() + ": Resuming");
+            writer.flush();
+            if (this.resume()) {
+                writer.println(new Date() + ": Resumed");
+            }
+            else {
+                writer.println(new Date() + ": Cannot resume while " + this.getStatus());
+            }
+        }
+        else if (command != null && command.startsWith(config.getShutdownGroupCommand() + " group=")) {
+            final String group = command.substring(config.getShutdownGroupCommand().length() + 7).trim();
+            this.logger.info("Recieved request for shutdown of group '{}'", group);
+            writer.println(new Date() + ": Starting Shutdown of group '" + group + "' and waiting");
+            writer.flush();
+            if (this.shutdownGroup(group)) {
+                writer.println(new Date() + ": Shutdown of group '" + group + "' Complete");
+            }
+            else {
+                writer.println(new Date() + ": Cannot shut down group '" + group + "' while " + this.getStatus());
+            }
+        }
+        else if (config.getDryRunCommand().equals(command)) {
+            this.logger.info("Recieved request for shutdown plan");
+            writer.println(new Date() + ": Shutdown plan, no listeners will be called");
+            this.planShutdown().write(writer);
+        }
+        else if (config.getStatusCommand().equals(command)) {
+            this.logger.debug("Recieved request for status");
+            writer.println(new Date() + ": " + this.getStatus());
+        }
+        else {
+            writer.println(new Date() + ": Unknown command '" + command + "'");
+        }
         
-        this.shutdownComplete.set(true);
-        this.shutdownLatch.countDown();
+        return false;
     }
     
     /**
@@ -182,6 +939,9 @@ public class ShutdownHandler {
         final List<ShutdownListener> shutdownListenersClone = new ArrayList<ShutdownListener>(shutdownListeners);
         this.sortShutdownListeners(shutdownListenersClone);
         for (final ShutdownListener shutdownListener : shutdownListenersClone) {
+            final long start = System.currentTimeMillis();
+            final ShutdownTrace.Span span = this.shutdownTrace.begin(String.valueOf(shutdownListener), "listener")
+                    .arg("class", shutdownListener.getClass().getName());
             try {
                 this.logger.info("Calling ShutdownListener: {}", shutdownListener);
                 shutdownListener.shutdown();
@@ -189,6 +949,16 @@ public class ShutdownHandler {
             }
             catch (Exception e) {
                 this.logger.warn("ShutdownListener " + shutdownListener + " threw an exception, continuing with shutdown", e);
+                span.arg("exception", e);
+                this.shutdownFailures.add(String.valueOf(shutdownListener));
+            }
+            finally {
+                span.end();
+                this.shutdownDurations.put(this.getListenerKey(shutdownListener), System.currentTimeMillis() - start);
+                if (this.shutdownRequested.get()) {
+                    this.shutdownListenersCompleted.incrementAndGet();
+                    this.publishStatus();
+                }
             }
         }
     }
@@ -200,9 +970,12 @@ public class ShutdownHandler {
         private final ServerSocket shutdownSocket;
         private final InetAddress bindHost;
         private final int port;
+        private final File portFile;
+        private final Semaphore connectionPermits;
         
-        private ShutdownSocketListener(String host, int port) {
-            this.port = port;
+        private ShutdownSocketListener(String host, int portRangeStart, int portRangeEnd, String portFile, int maxConnections) {
+            this.connectionPermits = new Semaphore(maxConnections);
+            
             try {
                 this.bindHost = InetAddress.getByName(host);
             }
@@ -210,14 +983,62 @@ public class ShutdownHandler {
                 throw new RuntimeException("Failed to create InetAddress for host '" + host  + "'", uhe);
             }
             
+            //Use the first free port in the range, a port of 0 binds an ephemeral port
+            ServerSocket shutdownSocket = null;
+            for (int port = portRangeStart; shutdownSocket == null; port++) {
+                try {
+                    shutdownSocket = new ServerSocket(port, 10, this.bindHost);
+                }
+                catch (IOException ioe) {
+                    if (port >= portRangeEnd) {
+                        throw new RuntimeException("Failed to create shutdown socket on '" + this.bindHost + "' and " + 
+                                (portRangeStart == portRangeEnd ? Integer.toString(portRangeStart) : portRangeStart + "-" + portRangeEnd), ioe);
+                    }
+                    logger.debug("Port {} is in use, trying next port in range", port);
+                }
+            }
+            this.shutdownSocket = shutdownSocket;
+            this.port = this.shutdownSocket.getLocalPort();
+            
+            logger.info("Bound shutdown socket to {}:{}. Starting listener thread for shutdown requests.", this.bindHost, this.port);
+            
+            if (portFile != null) {
+                this.portFile = new File(portFile);
+                this.writePortFile(host);
+            }
+            else {
+                this.portFile = null;
+            }
+        }
+        
+        /**
+         * Publishes the bound host, port and process id, written to a temporary file first so readers never see a partial file
+         */
+        private void writePortFile(String host) {
+            final Properties portProperties = new Properties();
+            portProperties.setProperty("host", host);
+            portProperties.setProperty("port", Integer.toString(this.port));
+            final String jvmName = ManagementFactory.getRuntimeMXBean().getName();
+            final int pidSeparator = jvmName.indexOf('@');
+            if (pidSeparator > 0) {
+                portProperties.setProperty("pid", jvmName.substring(0, pidSeparator));
+            }
+            
+            final File tempFile = new File(this.portFile.getPath() + ".tmp");
             try {
-                this.shutdownSocket = new ServerSocket(this.port, 10, this.bindHost);
+                final OutputStream out = new FileOutputStream(tempFile);
+                try {
+                    portProperties.store(out, "Shutdown Listener");
+                }
+                finally {
+                    out.close();
+                }
+                Files.move(tempFile.toPath(), this.portFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                logger.info("Published shutdown port to '{}'", this.portFile);
             }
             catch (IOException ioe) {
-                throw new RuntimeException("Failed to create shutdown socket on '" + this.bindHost + "' and " + this.port, ioe);
+                throw new RuntimeException("Failed to write port file '" + this.portFile + "'", ioe);
             }
-            
-            logger.info("Bound shutdown socket to {}:{}. Starting listener thread for shutdown requests.", this.bindHost, this.port);
         }
 
         /* (non-Javadoc)
@@ -228,7 +1049,12 @@ public class ShutdownHandler {
                 while (!shutdownSocket.isClosed()) {
                     try {
                         final Socket connection = shutdownSocket.accept();
-                        final ShutdownSocketHandler shutdownSocketHandler = new ShutdownSocketHandler(connection);
+                        if (!this.connectionPermits.tryAcquire()) {
+                            rejectConnection(connection);
+                            continue;
+                        }
+                        
+                        final ShutdownSocketHandler shutdownSocketHandler = new ShutdownSocketHandler(connection, this.connectionPermits);
                         final Thread shutdownRequestThread = new Thread(shutdownSocketHandler, "ShutdownHandler-" + connection.getInetAddress() + ":" + connection.getPort());
                         shutdownRequestThread.setDaemon(true);
                         shutdownRequestThread.start();
@@ -251,6 +1077,32 @@ public class ShutdownHandler {
             }
         }
         
+        /**
+         * Rejects a connection over the connection limit without starting a handler thread. The connection is closed
+         * normally so the reply isn't discarded by a reset.
+         */
+        private void rejectConnection(Socket connection) {
+            logger.warn("Rejecting shutdown socket connection from {}:{}, {} connections already open", 
+                    new Object[] { connection.getInetAddress(), connection.getPort(), ShutdownConfiguration.getInstance().getMaxConnections() });
+            try {
+                final OutputStream out = connection.getOutputStream();
+                out.write((new Date() + ": Too many connections\n").getBytes("UTF-8"));
+                out.flush();
+                connection.shutdownOutput();
+            }
+            catch (IOException ioe) {
+                //Ignore
+            }
+            finally {
+                try {
+                    connection.close();
+                }
+                catch (IOException ioe) {
+                    //Ignore
+                }
+            }
+        }
+        
         public void shutdown() {
             if (!shutdownSocket.isClosed()) {
                 try {
@@ -260,6 +1112,10 @@ public class ShutdownHandler {
                 catch (IOException ioe) {
                     //Ignore
                 }
+                
+                if (this.portFile != null && !this.portFile.delete()) {
+                    logger.debug("Failed to delete port file '{}'", this.portFile);
+                }
             }
         }
 
@@ -274,9 +1130,11 @@ public class ShutdownHandler {
      */
     private class ShutdownSocketHandler implements Runnable {
         private final Socket shutdownConnection;
+        private final Semaphore connectionPermits;
         
-        public ShutdownSocketHandler(Socket shutdownConnection) {
+        public ShutdownSocketHandler(Socket shutdownConnection, Semaphore connectionPermits) {
             this.shutdownConnection = shutdownConnection;
+            this.connectionPermits = connectionPermits;
         }
 
         /* (non-Javadoc)
@@ -286,47 +1144,39 @@ public class ShutdownHandler {
             boolean shutdownNoWait = false;
 
             try {
-                final BufferedReader reader = new BufferedReader(new InputStreamReader(shutdownConnection.getInputStream()));
+                final ShutdownConfiguration config = ShutdownConfiguration.getInstance();
+                final ControlCommandReader reader = new ControlCommandReader(config.getMaxCommandLength(), config.getReadTimeout());
                 final PrintWriter writer = new PrintWriter(this.shutdownConnection.getOutputStream());
                 try {
-                    final String recievedCommand = reader.readLine();
-                
-                    final ShutdownConfiguration config = ShutdownConfiguration.getInstance();
-                    if (config.getShutdownWaitCommand().equals(recievedCommand)) {
-                        logger.info("Recieved request for shutdown");
-                        writer.println(new Date() + ": Starting Shutdown and waiting");
-                        writer.flush();
-                        shutdown();
-                        writer.println(new Date() + ": Shutdown Complete");
-                    }
-                    else if (config.getShutdownNoWaitCommand().equals(recievedCommand)) {
-                        logger.info("Recieved request for shutdown");
-                        writer.println(new Date() + ": Starting Shutdown and disconnecting shutdown socket");
-                        shutdownNoWait = true;
+                    final String recievedCommand;
+                    try {
+                        recievedCommand = reader.readCommand(this.shutdownConnection);
                     }
-                    else if (config.getStatusCommand().equals(recievedCommand)) {
-                        logger.debug("Recieved request for status");
-                        if (shutdownRequested.get()) {
-                            writer.println(new Date() + ": Shutting down");
-                        }
-                        else {
-                            writer.println(new Date() + ": Running");
-                        }
+                    catch (CommandTooLongException ctle) {
+                        logger.warn("Rejecting command from {}: {}", this.shutdownConnection.getInetAddress(), ctle.getMessage());
+                        writer.println(new Date() + ": " + ctle.getMessage());
+                        return;
                     }
-                    else {
-                        writer.println(new Date() + ": Unknown command '" + recievedCommand + "'");
+                    catch (SocketTimeoutException ste) {
+                        //Reset the stalled connection instead of leaving it in TIME_WAIT
+                        logger.warn("Closing connection from {}: {}", this.shutdownConnection.getInetAddress(), ste.getMessage());
+                        this.shutdownConnection.setSoLinger(true, 0);
+                        return;
                     }
+                
+                    shutdownNoWait = executeCommand(recievedCommand, writer);
                 }
                 finally {
                     writer.flush();
-                    IOUtils.closeQuietly(reader);
-                    IOUtils.closeQuietly(writer);
+                    writer.close();
                 }
             }
             catch (IOException e) {
                 logger.warn("Exception while hanlding connection to shutdown socket, ignoring", e);
             }
             finally {
+                this.connectionPermits.release();
+                
                 if (this.shutdownConnection != null) {
                     try {
                         this.shutdownConnection.close();
@@ -344,6 +1194,24 @@ public class ShutdownHandler {
         }
     }
 
+    /**
+     * Writes handoff responses from the running instance to the log
+     */
+    private class LoggingOutputStream extends OutputStream {
+        private final StringBuilder line = new StringBuilder();
+        
+        @Override
+        public void write(int b) {
+            if (b == '\n') {
+                logger.info("Handoff: {}", this.line.toString().trim());
+                this.line.setLength(0);
+            }
+            else {
+                this.line.append((char) b);
+            }
+        }
+    }
+
     /**
      * Runnable that calls shutdown, used for JVM shutdown hook
      */
@@ -353,7 +1221,7 @@ public class ShutdownHandler {
          */
         public void run() {
             logger.info("JVM shutdown hook called");
-            shutdown();
+            shutdown(shutdownHookTimeout);
         }
     }
 }
\ No newline at end of file
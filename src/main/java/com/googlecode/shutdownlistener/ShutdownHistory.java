@@ -0,0 +1,107 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Durations of previous shutdowns by listener, stored as a properties file of listener key to milliseconds. Each
+ * recorded run is blended into the stored value so a single slow shutdown doesn't dominate the estimate.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+class ShutdownHistory {
+    /**
+     * Weight of the newest run in the stored estimate
+     */
+    static final double RECENT_WEIGHT = 0.5;
+    
+    private ShutdownHistory() {
+    }
+    
+    /**
+     * @return Estimated milliseconds by listener key, empty if there is no history
+     */
+    static Map<String, Long> load(File historyFile) throws IOException {
+        final Map<String, Long> history = new LinkedHashMap<String, Long>();
+        if (!historyFile.exists()) {
+            return history;
+        }
+        
+        final Properties historyProperties = new Properties();
+        final InputStream in = new FileInputStream(historyFile);
+        try {
+            historyProperties.load(in);
+        }
+        finally {
+            in.close();
+        }
+        
+        for (final String key : historyProperties.stringPropertyNames()) {
+            try {
+                history.put(key, Long.parseLong(historyProperties.getProperty(key).trim()));
+            }
+            catch (NumberFormatException nfe) {
+                //Ignore the corrupt entry, it is replaced on the next shutdown
+            }
+        }
+        return history;
+    }
+    
+    /**
+     * Blends the durations of a shutdown into the history file, replacing it atomically
+     */
+    static void record(File historyFile, Map<String, Long> durations) throws IOException {
+        final Map<String, Long> history = load(historyFile);
+        for (final Map.Entry<String, Long> duration : durations.entrySet()) {
+            final Long previous = history.get(duration.getKey());
+            if (previous == null) {
+                history.put(duration.getKey(), duration.getValue());
+            }
+            else {
+                history.put(duration.getKey(), Math.round(duration.getValue() * RECENT_WEIGHT + previous * (1 - RECENT_WEIGHT)));
+            }
+        }
+        
+        final Properties historyProperties = new Properties();
+        for (final Map.Entry<String, Long> entry : history.entrySet()) {
+            historyProperties.setProperty(entry.getKey(), entry.getValue().toString());
+        }
+        
+        final File tempFile = new File(historyFile.getPath() + ".tmp");
+        final OutputStream out = new FileOutputStream(tempFile);
+        try {
+            historyProperties.store(out, "Shutdown Listener durations in milliseconds");
+        }
+        finally {
+            out.close();
+        }
+        Files.move(tempFile.toPath(), historyFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What {@link ShutdownHandler#shutdown()} would do if called now, from {@link ShutdownHandler#planShutdown()}.
+ * Listeners run one at a time on the shutdown thread so the estimated shutdown time is the sum of the steps, listeners
+ * in groups that were already stopped are listed but skipped.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class ShutdownPlan {
+    private final List<Step> steps;
+    
+    ShutdownPlan(List<Step> steps) {
+        this.steps = Collections.unmodifiableList(new ArrayList<Step>(steps));
+    }
+    
+    /**
+     * @return The listeners in the order they would be called
+     */
+    public List<Step> getSteps() {
+        return this.steps;
+    }
+    
+    /**
+     * @return Estimated shutdown time in milliseconds from the recorded history, steps without history count as 0
+     */
+    public long getEstimatedDuration() {
+        long estimate = 0;
+        for (final Step step : this.steps) {
+            if (!step.isSkipped() && step.getEstimatedDuration() > 0) {
+                estimate += step.getEstimatedDuration();
+            }
+        }
+        return estimate;
+    }
+    
+    /**
+     * @return Number of steps that will run but have no recorded history
+     */
+    public int getUnestimatedCount() {
+        int count = 0;
+        for (final Step step : this.steps) {
+            if (!step.isSkipped() && step.getEstimatedDuration() < 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * @return Estimated milliseconds by group, listeners without a group are under null
+     */
+    public Map<String, Long> getEstimatedDurationByGroup() {
+        final Map<String, Long> groups = new LinkedHashMap<String, Long>();
+        for (final Step step : this.steps) {
+            if (!step.isSkipped()) {
+                final Long estimate = groups.get(step.getGroup());
+                groups.put(step.getGroup(), (estimate == null ? 0 : estimate) + Math.max(0, step.getEstimatedDuration()));
+            }
+        }
+        return groups;
+    }
+    
+    /**
+     * Writes one line per step followed by a summary line
+     */
+    public void write(PrintWriter writer) {
+        for (final Step step : this.steps) {
+            writer.println(step);
+        }
+        writer.println("Sequential on the shutdown thread, estimated " + this.getEstimatedDuration() + "ms"
+                + (this.getUnestimatedCount() > 0 ? " (" + this.getUnestimatedCount() + " listeners have no history)" : "")
+                + ", by group " + this.getEstimatedDurationByGroup());
+    }
+    
+    @Override
+    public String toString() {
+        return "ShutdownPlan [steps=" + steps.size() + ", estimatedDuration=" + getEstimatedDuration() + "]";
+    }
+
+    /**
+     * A single listener in the plan
+     */
+    public static final class Step {
+        private final int order;
+        private final boolean internal;
+        private final String listener;
+        private final String group;
+        private final long timeout;
+        private final long estimatedDuration;
+        private final boolean skipped;
+        
+        Step(int order, boolean internal, String listener, String group, long timeout, long estimatedDuration, boolean skipped) {
+            this.order = order;
+            this.internal = internal;
+            this.listener = listener;
+            this.group = group;
+            this.timeout = timeout;
+            this.estimatedDuration = estimatedDuration;
+            this.skipped = skipped;
+        }
+
+        /**
+         * @return Position of the step, starting at 1
+         */
+        public int getOrder() {
+            return order;
+        }
+        /**
+         * @return true for the handler's own listeners which always run after the registered listeners
+         */
+        public boolean isInternal() {
+            return internal;
+        }
+        public String getListener() {
+            return listener;
+        }
+        /**
+         * @return The {@link GroupedShutdownListener} group, null if the listener isn't grouped
+         */
+        public String getGroup() {
+            return group;
+        }
+        /**
+         * @return The {@link BoundedShutdownListener} timeout in milliseconds, -1 if the listener isn't bounded
+         */
+        public long getTimeout() {
+            return timeout;
+        }
+        /**
+         * @return Estimated milliseconds from the recorded history, -1 if there is no history
+         */
+        public long getEstimatedDuration() {
+            return estimatedDuration;
+        }
+        /**
+         * @return true if the listener's group was already stopped so it won't be called
+         */
+        public boolean isSkipped() {
+            return skipped;
+        }
+
+        @Override
+        public String toString() {
+            return order + ". " + (internal ? "[internal] " : "") + listener
+                    + (group != null ? " group=" + group : "")
+                    + (timeout >= 0 ? " timeout=" + timeout + "ms" : "")
+                    + " estimate=" + (estimatedDuration >= 0 ? estimatedDuration + "ms" : "unknown")
+                    + (skipped ? " SKIPPED (group stopped)" : "");
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of a {@link ShutdownHandler#shutdownWithResult()}, every caller gets the same result once the shutdown has
+ * actually completed.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public final class ShutdownResult {
+    private final long startTime;
+    private final long duration;
+    private final Map<String, Long> listenerDurations;
+    private final List<String> failedListeners;
+    
+    ShutdownResult(long startTime, long duration, Map<String, Long> listenerDurations, List<String> failedListeners) {
+        this.startTime = startTime;
+        this.duration = duration;
+        this.listenerDurations = Collections.unmodifiableMap(new LinkedHashMap<String, Long>(listenerDurations));
+        this.failedListeners = Collections.unmodifiableList(new ArrayList<String>(failedListeners));
+    }
+
+    /**
+     * @return Time the shutdown started, in milliseconds since the epoch
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return Milliseconds from the start of the shutdown until the last listener completed
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return Milliseconds each listener took in the order they ran, including groups shut down before the full shutdown
+     */
+    public Map<String, Long> getListenerDurations() {
+        return listenerDurations;
+    }
+
+    /**
+     * @return Listeners that threw an exception from {@link ShutdownListener#shutdown()}
+     */
+    public List<String> getFailedListeners() {
+        return failedListeners;
+    }
+    
+    /**
+     * @return true if every listener completed without throwing an exception
+     */
+    public boolean isSuccessful() {
+        return this.failedListeners.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "Shutdown started " + new Date(startTime) + " took " + duration + "ms, " + listenerDurations.size() + " listeners"
+                + (failedListeners.isEmpty() ? "" : ", failed: " + failedListeners);
+    }
+}
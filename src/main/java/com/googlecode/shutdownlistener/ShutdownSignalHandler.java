@@ -0,0 +1,231 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Optional POSIX signal handling for a {@link ShutdownHandler}. Once {@link #install()} is called:
+ * <ul>
+ *  <li>The shutdown signal (TERM) runs {@link ShutdownHandler#shutdown()} on a new thread and then exits the JVM, so
+ *  the full graceful sequence runs before the JVM starts exiting instead of from an unordered JVM shutdown hook.</li>
+ *  <li>A second shutdown signal while shutting down escalates, the stack of the shutdown thread is logged and the
+ *  JVM is halted.</li>
+ *  <li>The status signal (USR2) logs the handler status, its listeners and JVM metrics.</li>
+ * </ul>
+ * 
+ * Signals are handled using the sun.misc signal API which is not available on every JVM, {@link #install()} logs a
+ * warning and leaves the default JVM behavior in place for any signal that cannot be handled.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class ShutdownSignalHandler {
+    protected final Logger logger = LoggerFactory.getLogger(this.getClass());
+    
+    private final ShutdownHandler shutdownHandler;
+    private final AtomicBoolean shutdownSignaled = new AtomicBoolean(false);
+    private String shutdownSignal = "TERM";
+    private String statusSignal = "USR2";
+    private boolean exitAfterShutdown = true;
+    private int exitCode = 0;
+    private int escalationExitCode = 143;
+    private volatile Thread shutdownThread;
+    
+    public ShutdownSignalHandler(ShutdownHandler shutdownHandler) {
+        if (shutdownHandler == null) {
+            throw new IllegalArgumentException("ShutdownHandler cannot be null");
+        }
+        this.shutdownHandler = shutdownHandler;
+    }
+    
+    /**
+     * Name of the signal that triggers shutdown, defaults to "TERM"
+     */
+    public void setShutdownSignal(String shutdownSignal) {
+        this.shutdownSignal = shutdownSignal;
+    }
+
+    /**
+     * Name of the signal that triggers a status dump, defaults to "USR2". Set to null to disable.
+     */
+    public void setStatusSignal(String statusSignal) {
+        this.statusSignal = statusSignal;
+    }
+
+    /**
+     * If {@link System#exit(int)} should be called once a signal triggered shutdown completes, defaults to true
+     */
+    public void setExitAfterShutdown(boolean exitAfterShutdown) {
+        this.exitAfterShutdown = exitAfterShutdown;
+    }
+
+    /**
+     * Exit code used after a signal triggered shutdown completes, defaults to 0
+     */
+    public void setExitCode(int exitCode) {
+        this.exitCode = exitCode;
+    }
+
+    /**
+     * Exit code used when a second shutdown signal halts the JVM, defaults to 143
+     */
+    public void setEscalationExitCode(int escalationExitCode) {
+        this.escalationExitCode = escalationExitCode;
+    }
+
+    /**
+     * Registers the signal handlers
+     */
+    public void install() {
+        final String shutdownSignal = this.shutdownSignal;
+        this.handle(shutdownSignal, new Runnable() {
+            public void run() {
+                onShutdownSignal(shutdownSignal);
+            }
+        });
+        
+        final String statusSignal = this.statusSignal;
+        if (statusSignal != null) {
+            this.handle(statusSignal, new Runnable() {
+                public void run() {
+                    logger.info("Recieved SIG{}, dumping status", statusSignal);
+                    dumpStatus();
+                }
+            });
+        }
+    }
+    
+    /**
+     * Logs the handler status, the registered listeners and JVM metrics
+     */
+    public void dumpStatus() {
+        final StringBuilder status = new StringBuilder();
+        status.append("Status: ").append(this.shutdownHandler.getStatus()).append("\n");
+        
+        final Collection<ShutdownListener> shutdownListeners = this.shutdownHandler.getShutdownListeners();
+        if (shutdownListeners != null) {
+            status.append("ShutdownListeners:\n");
+            for (final ShutdownListener shutdownListener : shutdownListeners) {
+                status.append("  ").append(shutdownListener).append("\n");
+            }
+        }
+        
+        final MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        final MemoryUsage nonHeap = ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage();
+        status.append("Uptime: ").append(ManagementFactory.getRuntimeMXBean().getUptime()).append("ms\n");
+        status.append("Heap: ").append(heap.getUsed()).append(" used / ").append(heap.getCommitted()).append(" committed / ").append(heap.getMax()).append(" max\n");
+        status.append("Non-Heap: ").append(nonHeap.getUsed()).append(" used / ").append(nonHeap.getCommitted()).append(" committed\n");
+        status.append("Threads: ").append(ManagementFactory.getThreadMXBean().getThreadCount()).append(" live / ")
+            .append(ManagementFactory.getThreadMXBean().getDaemonThreadCount()).append(" daemon");
+        
+        this.logger.info(status.toString());
+    }
+    
+    /**
+     * Called when the shutdown signal is recieved, the first call starts the shutdown and later calls halt the JVM
+     */
+    protected void onShutdownSignal(String signalName) {
+        if (this.shutdownSignaled.getAndSet(true)) {
+            this.logger.warn("Recieved second SIG{} while shutting down, halting with exit code {}", signalName, this.escalationExitCode);
+            
+            final Thread shutdownThread = this.shutdownThread;
+            if (shutdownThread != null) {
+                final StringBuilder stack = new StringBuilder("Shutdown was blocked in:");
+                for (final StackTraceElement element : shutdownThread.getStackTrace()) {
+                    stack.append("\n\tat ").append(element);
+                }
+                this.logger.warn(stack.toString());
+            }
+            
+            this.halt(this.escalationExitCode);
+            return;
+        }
+        
+        this.logger.info("Recieved SIG{}, starting shutdown", signalName);
+        
+        //Signal handlers must return quickly, run the shutdown on a new non-daemon thread
+        this.shutdownThread = new Thread(new Runnable() {
+            public void run() {
+                shutdownHandler.shutdown();
+                
+                if (exitAfterShutdown) {
+                    logger.info("Signal triggered shutdown complete, exiting with exit code {}", exitCode);
+                    System.exit(exitCode);
+                }
+            }
+        }, "Signal Shutdown");
+        this.shutdownThread.start();
+    }
+    
+    /**
+     * Halts the JVM, overridable for testing
+     */
+    protected void halt(int status) {
+        Runtime.getRuntime().halt(status);
+    }
+    
+    /**
+     * Registers the action for the signal. The sun.misc signal API is used reflectively so the build doesn't depend on
+     * internal JDK classes and JVMs without it fall back to their default signal behavior.
+     */
+    private void handle(String signalName, final Runnable action) {
+        try {
+            final ClassLoader classLoader = this.getClass().getClassLoader();
+            final Class<?> signalClass = Class.forName("sun.misc.Signal", true, classLoader);
+            final Class<?> signalHandlerClass = Class.forName("sun.misc.SignalHandler", true, classLoader);
+            
+            final Object signal = signalClass.getConstructor(String.class).newInstance(signalName);
+            final Object signalHandler = Proxy.newProxyInstance(classLoader, new Class<?>[] { signalHandlerClass }, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if ("handle".equals(method.getName())) {
+                        action.run();
+                        return null;
+                    }
+                    if ("equals".equals(method.getName())) {
+                        return proxy == args[0];
+                    }
+                    if ("hashCode".equals(method.getName())) {
+                        return System.identityHashCode(proxy);
+                    }
+                    return "SignalHandler [" + action + "]";
+                }
+            });
+            
+            signalClass.getMethod("handle", signalClass, signalHandlerClass).invoke(null, signal, signalHandler);
+            this.logger.debug("Registered handler for SIG{}", signalName);
+        }
+        catch (InvocationTargetException ite) {
+            this.logger.warn("Cannot handle SIG" + signalName + ", default JVM behavior will be used", ite.getCause());
+        }
+        catch (ReflectiveOperationException roe) {
+            this.logger.warn("Signal handling is not supported by this JVM, default behavior will be used for SIG" + signalName, roe);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records timed spans during shutdown and writes them in the Chrome trace event JSON format, the file can be opened
+ * in chrome://tracing or https://ui.perfetto.dev to see which listeners ran on which threads and where the time went.
+ * Every {@link ShutdownHandler} has a trace, see {@link ShutdownHandler#getShutdownTrace()}. Components that do long
+ * running work during shutdown can record their own spans:
+ * 
+ * <pre>
+ * final ShutdownTrace.Span span = shutdownHandler.getShutdownTrace().begin("Flush cache", "cache");
+ * try {
+ *     ...
+ * }
+ * finally {
+ *     span.end();
+ * }
+ * </pre>
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class ShutdownTrace {
+    private final long baseNanos = System.nanoTime();
+    private final List<Span> spans = new ArrayList<Span>();
+    
+    /**
+     * Start a span on the current thread, it is only recorded once {@link Span#end()} is called
+     * 
+     * @param name Name shown on the span
+     * @param category Category used to filter spans, such as "listener" or "drain"
+     */
+    public Span begin(String name, String category) {
+        return new Span(name, category);
+    }
+    
+    /**
+     * @return Number of spans recorded so far
+     */
+    public int getSpanCount() {
+        synchronized (this.spans) {
+            return this.spans.size();
+        }
+    }
+    
+    /**
+     * Writes the recorded spans to the file, replacing it atomically so a viewer never loads a partial trace
+     */
+    public void write(File traceFile) throws IOException {
+        final File tempFile = new File(traceFile.getPath() + ".tmp");
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8");
+        try {
+            this.write(writer);
+        }
+        finally {
+            writer.close();
+        }
+        Files.move(tempFile.toPath(), traceFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    /**
+     * Writes the recorded spans as a trace event JSON object
+     */
+    public void write(Writer writer) throws IOException {
+        final List<Span> spansClone;
+        synchronized (this.spans) {
+            spansClone = new ArrayList<Span>(this.spans);
+        }
+        
+        final String pid = getPid();
+        writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+        writer.write("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":" + pid + ",\"args\":{\"name\":\"Shutdown " + pid + "\"}}");
+        
+        //Name each thread once so the viewer labels the rows
+        final Map<Long, String> threadNames = new LinkedHashMap<Long, String>();
+        for (final Span span : spansClone) {
+            threadNames.put(span.threadId, span.threadName);
+        }
+        for (final Map.Entry<Long, String> threadName : threadNames.entrySet()) {
+            writer.write(",\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":" + pid + ",\"tid\":" + threadName.getKey()
+                    + ",\"args\":{\"name\":" + quote(threadName.getValue()) + "}}");
+        }
+        
+        for (final Span span : spansClone) {
+            writer.write(",\n{\"name\":" + quote(span.name) + ",\"cat\":" + quote(span.category) + ",\"ph\":\"X\",\"ts\":"
+                    + toMicros(span.startNanos - this.baseNanos) + ",\"dur\":" + toMicros(span.endNanos - span.startNanos)
+                    + ",\"pid\":" + pid + ",\"tid\":" + span.threadId);
+            
+            if (!span.args.isEmpty()) {
+                writer.write(",\"args\":{");
+                boolean first = true;
+                for (final Map.Entry<String, String> arg : span.args.entrySet()) {
+                    if (!first) {
+                        writer.write(",");
+                    }
+                    writer.write(quote(arg.getKey()) + ":" + quote(arg.getValue()));
+                    first = false;
+                }
+                writer.write("}");
+            }
+            writer.write("}");
+        }
+        
+        writer.write("\n]}\n");
+    }
+    
+    private void record(Span span) {
+        synchronized (this.spans) {
+            this.spans.add(span);
+        }
+    }
+    
+    private static String toMicros(long nanos) {
+        return Long.toString(nanos / 1000) + "." + String.format("%03d", nanos % 1000);
+    }
+    
+    private static String getPid() {
+        final String jvmName = ManagementFactory.getRuntimeMXBean().getName();
+        final int pidSeparator = jvmName.indexOf('@');
+        if (pidSeparator > 0) {
+            try {
+                return Long.toString(Long.parseLong(jvmName.substring(0, pidSeparator)));
+            }
+            catch (NumberFormatException nfe) {
+                //Fall through to the default
+            }
+        }
+        return "0";
+    }
+    
+    private static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        
+        final StringBuilder quoted = new StringBuilder(value.length() + 2);
+        quoted.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    quoted.append("\\\"");
+                    break;
+                case '\\':
+                    quoted.append("\\\\");
+                    break;
+                case '\n':
+                    quoted.append("\\n");
+                    break;
+                case '\r':
+                    quoted.append("\\r");
+                    break;
+                case '\t':
+                    quoted.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    }
+                    else {
+                        quoted.append(c);
+                    }
+            }
+        }
+        quoted.append('"');
+        return quoted.toString();
+    }
+    
+    /**
+     * A span of time on a single thread, recorded in the trace when {@link #end()} is called
+     */
+    public final class Span {
+        private final String name;
+        private final String category;
+        private final long threadId;
+        private final String threadName;
+        private final long startNanos;
+        private final Map<String, String> args = new LinkedHashMap<String, String>();
+        private long endNanos;
+        
+        private Span(String name, String category) {
+            final Thread currentThread = Thread.currentThread();
+            this.name = name;
+            this.category = category;
+            this.threadId = currentThread.getId();
+            this.threadName = currentThread.getName();
+            this.startNanos = System.nanoTime();
+        }
+        
+        /**
+         * Adds a value shown in the span details, returns this span for chaining
+         */
+        public Span arg(String key, Object value) {
+            this.args.put(key, String.valueOf(value));
+            return this;
+        }
+        
+        /**
+         * Ends the span and records it in the trace
+         */
+        public void end() {
+            this.endNanos = System.nanoTime();
+            record(this);
+        }
+    }
+}
@@ -16,18 +16,16 @@
 
 package com.googlecode.shutdownlistener;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.PrintStream;
-import java.net.InetAddress;
-import java.net.Socket;
+import java.util.Properties;
 
-import org.apache.commons.io.IOUtils;
+import com.googlecode.shutdownlistener.client.ShutdownClient;
 
 /**
  * Connects to the {@link org.jasig.portal.stats.shutdown.ShutdownHandler} and passes the first parameter passed on 
- * the command line. Any output from the handler is written to standard out.
+ * the command line. Any output from the handler is written to standard out. Scripts should prefer
+ * {@link ShutdownClient} which doesn't need the server's dependencies on the classpath.
  * 
  * @author Eric Dalquist
  * @version $Revision$
@@ -45,40 +43,52 @@ public class ShutdownUtility {
             command = config.getStatusCommand();
         }
         
-        System.out.println("Calling " + config.getHost() + ":" + config.getPort() + " with command: " + command);
+        System.out.println("Calling " + getHost(config) + ":" + getPort(config) + " with command: " + command);
         
-        final InetAddress hostAddress = InetAddress.getByName(config.getHost());
-        final Socket shutdownConnection = new Socket(hostAddress, config.getPort());
-        try {
-            shutdownConnection.setSoTimeout(5000);
-            final BufferedReader reader = new BufferedReader(new InputStreamReader(shutdownConnection.getInputStream()));
-            final PrintStream writer = new PrintStream(shutdownConnection.getOutputStream());
-            try {
-                writer.println(command);
-                writer.flush();
-
-                while (true) {
-                    final String line = reader.readLine();
-                    if (line == null) {
-                        break;
-                    }
-                    
-                    System.out.println(line);
-                }
-            }
-            finally {
-                IOUtils.closeQuietly(reader);
-                IOUtils.closeQuietly(writer);
-            }
+        sendCommand(config, command, 5000, System.out);
+    }
+    
+    /**
+     * Send a command to the {@link ShutdownHandler} socket described by the configuration, writing every response
+     * line to the provided stream.
+     * 
+     * @param soTimeout Read timeout in milliseconds, 0 to wait forever
+     * @return The last line of the response, null if there was no response
+     */
+    public static String sendCommand(ShutdownConfiguration config, String command, int soTimeout, PrintStream out) throws IOException {
+        return ShutdownClient.sendCommand(getHost(config), getPort(config), command, soTimeout, out);
+    }
+    
+    /**
+     * @return The host published in the port file if there is one, otherwise the configured host
+     */
+    public static String getHost(ShutdownConfiguration config) throws IOException {
+        final Properties portProperties = readPortFile(config);
+        if (portProperties != null && portProperties.getProperty("host") != null) {
+            return portProperties.getProperty("host");
         }
-        finally {
-            try {
-                shutdownConnection.close();
-            }
-            catch (IOException ioe) {
-            }
+        return config.getHost();
+    }
+    
+    /**
+     * @return The port published in the port file if there is one, otherwise the configured port
+     * @throws java.net.ConnectException If a port range or ephemeral port is configured and the port file doesn't exist
+     * @throws IllegalStateException If a port range or ephemeral port is configured without a port file
+     */
+    public static int getPort(ShutdownConfiguration config) throws IOException {
+        final Properties portProperties = readPortFile(config);
+        if (portProperties != null && portProperties.getProperty("port") != null) {
+            return Integer.parseInt(portProperties.getProperty("port"));
         }
         
-        
+        if (config.getPort() == 0 || config.getPortRangeEnd() != config.getPort()) {
+            final String port = config.getPort() == 0 ? "0" : config.getPort() + "-" + config.getPortRangeEnd();
+            ShutdownClient.checkPortFile(port, config.getPortFile());
+        }
+        return config.getPort();
+    }
+    
+    private static Properties readPortFile(ShutdownConfiguration config) throws IOException {
+        return ShutdownClient.readPortFile(config.getPortFile());
     }
 }
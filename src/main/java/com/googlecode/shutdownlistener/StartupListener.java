@@ -0,0 +1,46 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener;
+
+import java.util.Collection;
+
+/**
+ * Listens for application startup. Startup listeners are run in parallel by {@link ShutdownHandler#startup()}, a
+ * listener is only run once all of the listeners named in {@link #getStartupDependencies()} have completed. The
+ * handler reports {@link LifecycleState#READY} once every startup listener has completed.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public interface StartupListener {
+    /**
+     * @return Unique name of this startup step
+     */
+    public String getStartupName();
+    
+    /**
+     * @return Names of the startup steps that must complete before this one is run, may be empty
+     */
+    public Collection<String> getStartupDependencies();
+    
+    /**
+     * Called when the application is starting, should block until the startup step is complete. An exception
+     * fails the application startup.
+     */
+    public void startup() throws Exception;
+}
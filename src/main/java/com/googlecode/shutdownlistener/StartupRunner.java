@@ -0,0 +1,198 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+
+/**
+ * Runs {@link StartupListener}s in parallel, starting each listener as soon as all of its dependencies have completed.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+class StartupRunner {
+    private final Logger logger;
+    private final int threads;
+    
+    StartupRunner(Logger logger, int threads) {
+        this.logger = logger;
+        this.threads = threads;
+    }
+    
+    /**
+     * @return Time in milliseconds each startup listener took, in completion order
+     * @throws IllegalStateException If a dependency is unknown or the dependencies contain a cycle
+     * @throws Exception The first exception thrown by a startup listener
+     */
+    Map<String, Long> run(Collection<StartupListener> startupListeners) throws Exception {
+        final Map<String, StartupListener> listenersByName = new LinkedHashMap<String, StartupListener>();
+        for (final StartupListener startupListener : startupListeners) {
+            if (listenersByName.put(startupListener.getStartupName(), startupListener) != null) {
+                throw new IllegalStateException("Duplicate StartupListener name '" + startupListener.getStartupName() + "'");
+            }
+        }
+        
+        //Count unmet dependencies and build the reverse dependency graph
+        final Map<String, Integer> unmetDependencies = new HashMap<String, Integer>();
+        final Map<String, List<String>> dependents = new HashMap<String, List<String>>();
+        for (final StartupListener startupListener : listenersByName.values()) {
+            final Collection<String> dependencies = startupListener.getStartupDependencies();
+            final String name = startupListener.getStartupName();
+            unmetDependencies.put(name, dependencies == null ? 0 : dependencies.size());
+            
+            if (dependencies != null) {
+                for (final String dependency : dependencies) {
+                    if (!listenersByName.containsKey(dependency)) {
+                        throw new IllegalStateException("StartupListener '" + name + "' depends on unknown StartupListener '" + dependency + "'");
+                    }
+                    
+                    List<String> dependencyDependents = dependents.get(dependency);
+                    if (dependencyDependents == null) {
+                        dependencyDependents = new ArrayList<String>();
+                        dependents.put(dependency, dependencyDependents);
+                    }
+                    dependencyDependents.add(name);
+                }
+            }
+        }
+        checkForCycles(listenersByName.keySet(), unmetDependencies, dependents);
+        
+        final Map<String, Long> timings = Collections.synchronizedMap(new LinkedHashMap<String, Long>());
+        if (listenersByName.isEmpty()) {
+            return timings;
+        }
+        
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(this.threads, listenersByName.size()));
+        final CompletionService<String> completionService = new ExecutorCompletionService<String>(executor);
+        try {
+            int running = 0;
+            for (final Map.Entry<String, Integer> entry : unmetDependencies.entrySet()) {
+                if (entry.getValue() == 0) {
+                    this.submit(completionService, listenersByName.get(entry.getKey()), timings);
+                    running++;
+                }
+            }
+            
+            while (running > 0) {
+                final String completed;
+                try {
+                    completed = completionService.take().get();
+                }
+                catch (ExecutionException ee) {
+                    final Throwable cause = ee.getCause();
+                    if (cause instanceof Exception) {
+                        throw (Exception) cause;
+                    }
+                    throw ee;
+                }
+                running--;
+                
+                final List<String> completedDependents = dependents.get(completed);
+                if (completedDependents != null) {
+                    for (final String dependent : completedDependents) {
+                        final int unmet = unmetDependencies.get(dependent) - 1;
+                        unmetDependencies.put(dependent, unmet);
+                        if (unmet == 0) {
+                            this.submit(completionService, listenersByName.get(dependent), timings);
+                            running++;
+                        }
+                    }
+                }
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        
+        return timings;
+    }
+    
+    private void submit(CompletionService<String> completionService, final StartupListener startupListener, final Map<String, Long> timings) {
+        completionService.submit(new Callable<String>() {
+            public String call() throws Exception {
+                final String name = startupListener.getStartupName();
+                logger.info("Calling StartupListener: {}", name);
+                
+                final long start = System.currentTimeMillis();
+                try {
+                    startupListener.startup();
+                }
+                catch (Exception e) {
+                    logger.error("StartupListener " + name + " threw an exception, failing startup", e);
+                    throw e;
+                }
+                
+                final long time = System.currentTimeMillis() - start;
+                timings.put(name, time);
+                logger.info("StartupListener {} complete in {}ms", name, time);
+                return name;
+            }
+        });
+    }
+    
+    private static void checkForCycles(Collection<String> names, Map<String, Integer> unmetDependencies, Map<String, List<String>> dependents) {
+        final Map<String, Integer> unmet = new HashMap<String, Integer>(unmetDependencies);
+        final List<String> ready = new ArrayList<String>();
+        for (final String name : names) {
+            if (unmet.get(name) == 0) {
+                ready.add(name);
+            }
+        }
+        
+        int resolved = 0;
+        while (!ready.isEmpty()) {
+            final String name = ready.remove(ready.size() - 1);
+            resolved++;
+            
+            final List<String> nameDependents = dependents.get(name);
+            if (nameDependents != null) {
+                for (final String dependent : nameDependents) {
+                    final int remaining = unmet.get(dependent) - 1;
+                    unmet.put(dependent, remaining);
+                    if (remaining == 0) {
+                        ready.add(dependent);
+                    }
+                }
+            }
+        }
+        
+        if (resolved != names.size()) {
+            final List<String> cyclic = new ArrayList<String>();
+            for (final Map.Entry<String, Integer> entry : unmet.entrySet()) {
+                if (entry.getValue() > 0) {
+                    cyclic.add(entry.getKey());
+                }
+            }
+            throw new IllegalStateException("StartupListener dependencies contain a cycle between: " + cyclic);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.googlecode.shutdownlistener.client.StatusPageReader;
+
+/**
+ * Keeps the {@link ShutdownHandler} status in a small memory mapped file that local monitors read with
+ * {@link StatusPageReader}, see it for the layout. Each update builds the complete page with its checksum in a local
+ * buffer, marks the page as mid update by making the sequence odd, copies the buffer in and makes the sequence even
+ * again. Readers can't rely on memory ordering across processes, they detect a torn copy by its checksum and retry.
+ * Callers never block, if another thread is already writing the page it picks up the change before it finishes. Runs as a
+ * heartbeat thread that refreshes the page every interval until shutdown completes.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+class StatusPage implements Runnable {
+    protected final Logger logger = LoggerFactory.getLogger(this.getClass());
+    
+    private final ShutdownHandler shutdownHandler;
+    private final File statusFile;
+    private final long heartbeatInterval;
+    private final MappedByteBuffer page;
+    private final AtomicBoolean publishing = new AtomicBoolean(false);
+    private final AtomicBoolean dirty = new AtomicBoolean(false);
+    private final AtomicLong heartbeatCount = new AtomicLong(0);
+    private volatile long heartbeatTime = System.currentTimeMillis();
+    private volatile int inFlight = 0;
+    
+    //Only accessed by the thread that holds the publishing flag
+    private final ByteBuffer image = ByteBuffer.allocate(StatusPageReader.PAGE_SIZE);
+    private final CRC32 crc = new CRC32();
+    private final long pid = getPid();
+    private long sequence = 0;
+    private LifecycleState lastState = null;
+    private long stateTime = 0;
+    
+    StatusPage(ShutdownHandler shutdownHandler, File statusFile, long heartbeatInterval) {
+        this.shutdownHandler = shutdownHandler;
+        this.statusFile = statusFile;
+        this.heartbeatInterval = heartbeatInterval;
+        
+        try {
+            final RandomAccessFile file = new RandomAccessFile(statusFile, "rw");
+            try {
+                file.setLength(StatusPageReader.PAGE_SIZE);
+                this.page = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, StatusPageReader.PAGE_SIZE);
+            }
+            finally {
+                file.close();
+            }
+        }
+        catch (IOException ioe) {
+            throw new RuntimeException("Failed to map status page '" + statusFile + "'", ioe);
+        }
+        
+        //Mark the page as mid update while the header is written so readers of a previous page retry
+        this.page.putLong(StatusPageReader.SEQUENCE_OFFSET, 1);
+        this.page.putInt(StatusPageReader.MAGIC_OFFSET, StatusPageReader.MAGIC);
+        this.page.putInt(StatusPageReader.VERSION_OFFSET, StatusPageReader.VERSION);
+        this.image.putInt(StatusPageReader.MAGIC_OFFSET, StatusPageReader.MAGIC);
+        this.image.putInt(StatusPageReader.VERSION_OFFSET, StatusPageReader.VERSION);
+        
+        this.publish();
+        
+        logger.info("Publishing status to '{}' every {}ms", statusFile, heartbeatInterval);
+    }
+    
+    /* (non-Javadoc)
+     * @see java.lang.Runnable#run()
+     */
+    public void run() {
+        try {
+            while (!this.shutdownHandler.isShutdownComplete()) {
+                this.heartbeatCount.incrementAndGet();
+                this.heartbeatTime = System.currentTimeMillis();
+                this.inFlight = this.countInFlight();
+                this.publish();
+                
+                Thread.sleep(this.heartbeatInterval);
+            }
+        }
+        catch (InterruptedException ie) {
+            logger.warn("Interrupted, status page heartbeat stopped", ie);
+        }
+        
+        this.publish();
+    }
+    
+    /**
+     * Writes the current status to the page, returns immediately if another thread is writing as it will include
+     * this update
+     */
+    void publish() {
+        this.dirty.set(true);
+        while (this.dirty.get() && this.publishing.compareAndSet(false, true)) {
+            try {
+                while (this.dirty.getAndSet(false)) {
+                    this.write();
+                }
+            }
+            finally {
+                this.publishing.set(false);
+            }
+        }
+    }
+    
+    private void write() {
+        final LifecycleState state = this.shutdownHandler.getState();
+        if (state != this.lastState) {
+            this.lastState = state;
+            this.stateTime = System.currentTimeMillis();
+        }
+        
+        this.sequence += 2;
+        this.image.putLong(StatusPageReader.SEQUENCE_OFFSET, this.sequence);
+        this.image.putLong(StatusPageReader.HEARTBEAT_COUNT_OFFSET, this.heartbeatCount.get());
+        this.image.putLong(StatusPageReader.HEARTBEAT_TIME_OFFSET, this.heartbeatTime);
+        this.image.putLong(StatusPageReader.PID_OFFSET, this.pid);
+        this.image.putInt(StatusPageReader.STATE_OFFSET, state.ordinal());
+        this.image.putInt(StatusPageReader.IN_FLIGHT_OFFSET, this.inFlight);
+        this.image.putInt(StatusPageReader.LISTENERS_TOTAL_OFFSET, this.shutdownHandler.getShutdownListenersTotal());
+        this.image.putInt(StatusPageReader.LISTENERS_COMPLETED_OFFSET, this.shutdownHandler.getShutdownListenersCompleted());
+        this.image.putLong(StatusPageReader.STATE_TIME_OFFSET, this.stateTime);
+        
+        this.crc.reset();
+        this.crc.update(this.image.array(), StatusPageReader.SEQUENCE_OFFSET, StatusPageReader.CHECKSUM_OFFSET - StatusPageReader.SEQUENCE_OFFSET);
+        this.image.putLong(StatusPageReader.CHECKSUM_OFFSET, this.crc.getValue());
+        
+        //The odd sequence lets readers skip the copy early, the checksum is what detects a torn read
+        this.page.putLong(StatusPageReader.SEQUENCE_OFFSET, this.sequence - 1);
+        this.page.position(StatusPageReader.HEARTBEAT_COUNT_OFFSET);
+        this.page.put(this.image.array(), StatusPageReader.HEARTBEAT_COUNT_OFFSET, StatusPageReader.PAGE_SIZE - StatusPageReader.HEARTBEAT_COUNT_OFFSET);
+        this.page.putLong(StatusPageReader.SEQUENCE_OFFSET, this.sequence);
+    }
+    
+    /**
+     * Sums the counts of the registered {@link InFlightShutdownListener}s
+     */
+    private int countInFlight() {
+        final Collection<ShutdownListener> shutdownListeners = this.shutdownHandler.getShutdownListeners();
+        if (shutdownListeners == null) {
+            return 0;
+        }
+        
+        final List<ShutdownListener> shutdownListenersClone;
+        try {
+            shutdownListenersClone = new ArrayList<ShutdownListener>(shutdownListeners);
+        }
+        catch (ConcurrentModificationException cme) {
+            //A listener is being registered, use the previous count until the next heartbeat
+            return this.inFlight;
+        }
+        
+        int count = 0;
+        for (final ShutdownListener shutdownListener : shutdownListenersClone) {
+            if (shutdownListener instanceof InFlightShutdownListener) {
+                try {
+                    count += ((InFlightShutdownListener) shutdownListener).getInFlightCount();
+                }
+                catch (RuntimeException re) {
+                    logger.warn("InFlightShutdownListener " + shutdownListener + " threw an exception, ignoring its count", re);
+                }
+            }
+        }
+        return count;
+    }
+    
+    private static long getPid() {
+        final String jvmName = ManagementFactory.getRuntimeMXBean().getName();
+        final int pidSeparator = jvmName.indexOf('@');
+        if (pidSeparator > 0) {
+            try {
+                return Long.parseLong(jvmName.substring(0, pidSeparator));
+            }
+            catch (NumberFormatException nfe) {
+                //Fall through to the default
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return "StatusPage [statusFile=" + statusFile + "]";
+    }
+}
@@ -0,0 +1,210 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.shutdownlistener.client;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.util.Properties;
+
+/**
+ * Minimal client for the {@link com.googlecode.shutdownlistener.ShutdownHandler} socket. Only depends on the JDK and
+ * only touches the handful of classes needed to read the configuration and send one command so it starts quickly,
+ * the <code>client</code> classifier jar contains just this package and is what <code>shutdown.sh</code> runs.
+ * <p>
+ * Reads the same <code>shutdown-listener.properties</code> as the server but only the host, port, portFile and
+ * statusCommand properties. Connects to the first parameter passed on the command line, any output from the handler
+ * is written to standard out.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public final class ShutdownClient {
+    public static final String DEFAULT_HOST = "localhost";
+    public static final int DEFAULT_PORT = 7456;
+    public static final String DEFAULT_STATUS_COMMAND = "STATUS";
+    
+    private ShutdownClient() {
+    }
+    
+    public static void main(String[] args) throws Exception {
+        final Properties config = loadConfiguration();
+        
+        final String command;
+        if (args.length > 0) {
+            command = args[0];
+        }
+        else {
+            command = config.getProperty("statusCommand", DEFAULT_STATUS_COMMAND);
+        }
+        
+        final Properties portProperties = readPortFile(config.getProperty("portFile"));
+        final String host = getHost(config, portProperties);
+        final int port = getPort(config, portProperties);
+        
+        System.out.println("Calling " + host + ":" + port + " with command: " + command);
+        
+        sendCommand(host, port, command, 5000, System.out);
+    }
+    
+    /**
+     * Send a command to the {@link com.googlecode.shutdownlistener.ShutdownHandler} socket, writing every response
+     * line to the provided stream.
+     * 
+     * @param soTimeout Read timeout in milliseconds, 0 to wait forever
+     * @return The last line of the response, null if there was no response
+     */
+    public static String sendCommand(String host, int port, String command, int soTimeout, PrintStream out) throws IOException {
+        final Socket shutdownConnection = new Socket(host, port);
+        try {
+            shutdownConnection.setSoTimeout(soTimeout);
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(shutdownConnection.getInputStream()));
+            final PrintStream writer = new PrintStream(shutdownConnection.getOutputStream());
+            writer.println(command);
+            writer.flush();
+
+            String lastLine = null;
+            while (true) {
+                final String line = reader.readLine();
+                if (line == null) {
+                    break;
+                }
+                
+                out.println(line);
+                lastLine = line;
+            }
+            
+            return lastLine;
+        }
+        finally {
+            try {
+                shutdownConnection.close();
+            }
+            catch (IOException ioe) {
+            }
+        }
+    }
+    
+    /**
+     * Loads the configuration from the file named by the shutdown-listener.configurationFile system property if set,
+     * otherwise from the classpath using the same system property and default location as the server. Class data
+     * sharing archives can't be used with directories on the classpath so scripts should use the file property.
+     * 
+     * @return The configuration, empty if none could be found
+     */
+    static Properties loadConfiguration() throws IOException {
+        final String configurationFile = System.getProperty("shutdown-listener.configurationFile");
+        final String propertiesFile = System.getProperty("shutdown-listener.configuration", "/shutdown-listener.properties");
+        
+        final Properties config = new Properties();
+        final InputStream configStream;
+        if (configurationFile != null) {
+            configStream = new FileInputStream(configurationFile);
+        }
+        else {
+            configStream = ShutdownClient.class.getResourceAsStream(propertiesFile);
+        }
+        if (configStream != null) {
+            try {
+                config.load(configStream);
+            }
+            finally {
+                configStream.close();
+            }
+        }
+        return config;
+    }
+    
+    /**
+     * @return The host published in the port file if there is one, otherwise the configured host
+     */
+    static String getHost(Properties config, Properties portProperties) {
+        if (portProperties != null && portProperties.getProperty("host") != null) {
+            return portProperties.getProperty("host");
+        }
+        return config.getProperty("host", DEFAULT_HOST).trim();
+    }
+    
+    /**
+     * @return The port published in the port file if there is one, otherwise the configured port
+     * @throws ConnectException If a port range or ephemeral port is configured and there is no port file to say which port was bound
+     * @throws IllegalStateException If a port range or ephemeral port is configured without a port file
+     */
+    static int getPort(Properties config, Properties portProperties) throws ConnectException {
+        if (portProperties != null && portProperties.getProperty("port") != null) {
+            return Integer.parseInt(portProperties.getProperty("port").trim());
+        }
+        
+        final String port = config.getProperty("port");
+        if (port == null) {
+            return DEFAULT_PORT;
+        }
+        final int configuredPort = Integer.parseInt(port.indexOf('-') < 0 ? port.trim() : "0");
+        if (configuredPort > 0) {
+            return configuredPort;
+        }
+        
+        //Guessing a port could stop a different instance on the same host
+        checkPortFile(port.trim(), config.getProperty("portFile"));
+        return configuredPort;
+    }
+    
+    /**
+     * Fails with a clear message when the port the application bound can't be known without the port file
+     * 
+     * @param port The configured port range or ephemeral port
+     * @throws ConnectException If the port file doesn't exist, the application is most likely not running
+     * @throws IllegalStateException If no port file is configured
+     */
+    public static void checkPortFile(String port, String portFile) throws ConnectException {
+        if (portFile == null) {
+            throw new IllegalStateException("port=" + port + " is a port range or ephemeral port, portFile must be configured for clients to find the bound port");
+        }
+        throw new ConnectException("Port file '" + portFile + "' does not exist, is the application running? port=" 
+                + port + " is a port range or ephemeral port so the bound port is only known from the port file");
+    }
+    
+    /**
+     * @return The contents of the port file, null if there is no port file
+     */
+    public static Properties readPortFile(String portFile) throws IOException {
+        if (portFile == null) {
+            return null;
+        }
+        
+        final File file = new File(portFile);
+        if (!file.exists()) {
+            return null;
+        }
+        
+        final Properties portProperties = new Properties();
+        final InputStream in = new FileInputStream(file);
+        try {
+            portProperties.load(in);
+        }
+        finally {
+            in.close();
+        }
+        return portProperties;
+    }
+}
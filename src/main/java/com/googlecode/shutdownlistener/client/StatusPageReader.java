@@ -0,0 +1,234 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Reads the status page a {@link com.googlecode.shutdownlistener.ShutdownHandler} keeps in its configured statusFile.
+ * The file is mapped once, each {@link #read()} only reads memory so monitors can poll many applications cheaply
+ * without connecting to the shutdown socket. Only depends on the JDK and is included in the client jar.
+ * <p>
+ * The page is {@link #PAGE_SIZE} big endian bytes:
+ * <pre>
+ *  0 int  magic 'SLSP'
+ *  4 int  layout version
+ *  8 long sequence, odd while the handler is writing
+ * 16 long heartbeat count
+ * 24 long heartbeat time, milliseconds since the epoch
+ * 32 long pid
+ * 40 int  lifecycle state, index into {@link #STATES}
+ * 44 int  in flight count
+ * 48 int  shutdown listeners to run
+ * 52 int  shutdown listeners completed
+ * 56 long time of the last state change, milliseconds since the epoch
+ * 64 long CRC32 of bytes 8 to 63
+ * </pre>
+ * The page is shared with another process so the Java memory model says nothing about the order in which the
+ * reader sees the handler's writes. Each read copies the page and only accepts the copy if the sequence is even and
+ * the checksum matches, a copy torn by a concurrent update is retried.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class StatusPageReader {
+    public static final int MAGIC = 0x534C5350;
+    public static final int VERSION = 2;
+    public static final int PAGE_SIZE = 72;
+    
+    public static final int MAGIC_OFFSET = 0;
+    public static final int VERSION_OFFSET = 4;
+    public static final int SEQUENCE_OFFSET = 8;
+    public static final int HEARTBEAT_COUNT_OFFSET = 16;
+    public static final int HEARTBEAT_TIME_OFFSET = 24;
+    public static final int PID_OFFSET = 32;
+    public static final int STATE_OFFSET = 40;
+    public static final int IN_FLIGHT_OFFSET = 44;
+    public static final int LISTENERS_TOTAL_OFFSET = 48;
+    public static final int LISTENERS_COMPLETED_OFFSET = 52;
+    public static final int STATE_TIME_OFFSET = 56;
+    public static final int CHECKSUM_OFFSET = 64;
+    
+    /**
+     * Names of the lifecycle states in the order they are numbered in the page
+     */
+    public static final String[] STATES = { "STARTING", "READY", "PAUSED", "SHUTTING_DOWN", "SHUT_DOWN" };
+    
+    private static final int MAX_READ_ATTEMPTS = 1000;
+    
+    private final MappedByteBuffer page;
+    
+    /**
+     * Maps the status file, fails if it doesn't exist or isn't a status page
+     */
+    public StatusPageReader(File statusFile) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(statusFile, "r");
+        try {
+            if (file.length() < PAGE_SIZE) {
+                throw new IOException("'" + statusFile + "' is too small to be a status page");
+            }
+            this.page = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, PAGE_SIZE);
+        }
+        finally {
+            file.close();
+        }
+        
+        if (this.page.getInt(MAGIC_OFFSET) != MAGIC) {
+            throw new IOException("'" + statusFile + "' is not a status page");
+        }
+        if (this.page.getInt(VERSION_OFFSET) != VERSION) {
+            throw new IOException("'" + statusFile + "' has unsupported status page version " + this.page.getInt(VERSION_OFFSET));
+        }
+    }
+    
+    /**
+     * Reads a consistent copy of the page, retrying while the handler is part way through an update
+     * 
+     * @throws IllegalStateException If no consistent copy could be read, the writing process likely died mid update
+     */
+    public Status read() {
+        final byte[] copy = new byte[PAGE_SIZE];
+        final ByteBuffer image = ByteBuffer.wrap(copy);
+        final CRC32 crc = new CRC32();
+        
+        for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+            //Duplicate so concurrent reads don't share the buffer position
+            this.page.duplicate().get(copy);
+            
+            final long sequence = image.getLong(SEQUENCE_OFFSET);
+            crc.reset();
+            crc.update(copy, SEQUENCE_OFFSET, CHECKSUM_OFFSET - SEQUENCE_OFFSET);
+            if ((sequence & 1) != 0 || image.getLong(CHECKSUM_OFFSET) != crc.getValue()) {
+                Thread.yield();
+                continue;
+            }
+            
+            return new Status(sequence,
+                    image.getLong(HEARTBEAT_COUNT_OFFSET),
+                    image.getLong(HEARTBEAT_TIME_OFFSET),
+                    image.getLong(PID_OFFSET),
+                    image.getInt(STATE_OFFSET),
+                    image.getInt(IN_FLIGHT_OFFSET),
+                    image.getInt(LISTENERS_TOTAL_OFFSET),
+                    image.getInt(LISTENERS_COMPLETED_OFFSET),
+                    image.getLong(STATE_TIME_OFFSET));
+        }
+        
+        throw new IllegalStateException("Status page did not settle after " + MAX_READ_ATTEMPTS + " attempts");
+    }
+    
+    /**
+     * Prints the status page named by the first argument
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("Usage: StatusPageReader <statusFile>");
+            System.exit(2);
+        }
+        
+        System.out.println(new StatusPageReader(new File(args[0])).read());
+    }
+    
+    /**
+     * A consistent copy of the status page
+     */
+    public static final class Status {
+        private final long sequence;
+        private final long heartbeatCount;
+        private final long heartbeatTime;
+        private final long pid;
+        private final int state;
+        private final int inFlight;
+        private final int listenersTotal;
+        private final int listenersCompleted;
+        private final long stateTime;
+        
+        Status(long sequence, long heartbeatCount, long heartbeatTime, long pid, int state, int inFlight, 
+                int listenersTotal, int listenersCompleted, long stateTime) {
+            this.sequence = sequence;
+            this.heartbeatCount = heartbeatCount;
+            this.heartbeatTime = heartbeatTime;
+            this.pid = pid;
+            this.state = state;
+            this.inFlight = inFlight;
+            this.listenersTotal = listenersTotal;
+            this.listenersCompleted = listenersCompleted;
+            this.stateTime = stateTime;
+        }
+        
+        /**
+         * @return Number of updates to the page, changes whenever anything on the page changes
+         */
+        public long getSequence() {
+            return sequence;
+        }
+        public long getHeartbeatCount() {
+            return heartbeatCount;
+        }
+        public long getHeartbeatTime() {
+            return heartbeatTime;
+        }
+        public long getPid() {
+            return pid;
+        }
+        /**
+         * @return Name of the lifecycle state, see {@link StatusPageReader#STATES}
+         */
+        public String getState() {
+            return state >= 0 && state < STATES.length ? STATES[state] : "UNKNOWN(" + state + ")";
+        }
+        /**
+         * @return Requests and tasks in progress as reported by the application's listeners
+         */
+        public int getInFlight() {
+            return inFlight;
+        }
+        /**
+         * @return Shutdown listeners that will run, 0 until shutdown starts
+         */
+        public int getListenersTotal() {
+            return listenersTotal;
+        }
+        public int getListenersCompleted() {
+            return listenersCompleted;
+        }
+        public long getStateTime() {
+            return stateTime;
+        }
+        
+        /**
+         * @return true if the handler has written a heartbeat within the last maxAge milliseconds
+         */
+        public boolean isAlive(long maxAge) {
+            return System.currentTimeMillis() - heartbeatTime <= maxAge;
+        }
+
+        @Override
+        public String toString() {
+            return "Status [state=" + getState() + ", pid=" + pid + ", inFlight=" + inFlight + ", listenersCompleted="
+                    + listenersCompleted + "/" + listenersTotal + ", heartbeatCount=" + heartbeatCount + ", heartbeatTime="
+                    + heartbeatTime + ", stateTime=" + stateTime + ", sequence=" + sequence + "]";
+        }
+    }
+}
@@ -0,0 +1,487 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener.snapshot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.googlecode.shutdownlistener.ShutdownListener;
+
+/**
+ * Persists the state of registered {@link SnapshotParticipant}s to a memory-mapped snapshot file when the application
+ * shuts down and loads it back on the next start via {@link #load()}.
+ * 
+ * Participants are written in parallel, each entry in the file carries the participant's state version and a CRC32
+ * checksum and the total size of the file is capped by {@link #setMaxSnapshotSize(long)}. The cap is enforced while
+ * participants write, a participant that runs past the remaining space is stopped and skipped. Which participants are
+ * kept when the total is too large depends on the order they write in. A missing, corrupt or
+ * incompatible snapshot results in a cold start, the snapshot file is deleted once it has been loaded so stale state
+ * is never loaded twice.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class SnapshotManager implements ShutdownListener {
+    static final int MAGIC = 0x534E4150; //"SNAP"
+    static final int FORMAT_VERSION = 1;
+    /**
+     * Entry names are written with an unsigned short length
+     */
+    static final int MAX_NAME_LENGTH = 0xFFFF;
+    /**
+     * Magic, format version and entry count
+     */
+    private static final int HEADER_SIZE = 12;
+    /**
+     * Name length, state version, state length and checksum
+     */
+    private static final int ENTRY_HEADER_SIZE = 18;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    protected final Logger logger = LoggerFactory.getLogger(this.getClass());
+    
+    private final File snapshotFile;
+    private final List<SnapshotParticipant> participants = new ArrayList<SnapshotParticipant>();
+    private long maxSnapshotSize = 64 * 1024 * 1024;
+    private int writerThreads = 4;
+    private long writeTimeout = 30000;
+    
+    public SnapshotManager(File snapshotFile) {
+        if (snapshotFile == null) {
+            throw new IllegalArgumentException("Snapshot file cannot be null");
+        }
+        this.snapshotFile = snapshotFile;
+    }
+    
+    /**
+     * {@link SnapshotParticipant}s whose state should be persisted
+     */
+    public synchronized void setParticipants(Collection<SnapshotParticipant> participants) {
+        for (final SnapshotParticipant participant : participants) {
+            validateParticipant(participant);
+        }
+        this.participants.clear();
+        this.participants.addAll(participants);
+    }
+    public synchronized void registerParticipant(SnapshotParticipant participant) {
+        validateParticipant(participant);
+        this.participants.add(participant);
+    }
+    
+    private static void validateParticipant(SnapshotParticipant participant) {
+        final int nameLength = getNameBytes(participant).length;
+        if (nameLength > MAX_NAME_LENGTH) {
+            throw new IllegalArgumentException("Snapshot name of " + participant + " is " + nameLength + " bytes, the maximum is " + MAX_NAME_LENGTH);
+        }
+    }
+    
+    private static byte[] getNameBytes(SnapshotParticipant participant) {
+        return participant.getSnapshotName().getBytes(UTF8);
+    }
+    
+    /**
+     * Maximum size in bytes of the snapshot file, participants that would exceed it are skipped. The file is memory
+     * mapped so the size can't be larger than {@link Integer#MAX_VALUE}. Defaults to 64MB
+     */
+    public void setMaxSnapshotSize(long maxSnapshotSize) {
+        if (maxSnapshotSize < HEADER_SIZE || maxSnapshotSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("maxSnapshotSize must be between " + HEADER_SIZE + " and " + Integer.MAX_VALUE + ": " + maxSnapshotSize);
+        }
+        this.maxSnapshotSize = maxSnapshotSize;
+    }
+    
+    /**
+     * Number of threads used to write participant state, defaults to 4
+     */
+    public void setWriterThreads(int writerThreads) {
+        this.writerThreads = writerThreads;
+    }
+    
+    /**
+     * Maximum time in milliseconds to wait for participants to write their state, defaults to 30000
+     */
+    public void setWriteTimeout(long writeTimeout) {
+        this.writeTimeout = writeTimeout;
+    }
+    
+    public File getSnapshotFile() {
+        return this.snapshotFile;
+    }
+
+    /**
+     * Loads the snapshot file and passes each entry to the matching participant.
+     * 
+     * @return true if a snapshot was loaded, false if the application is cold starting
+     */
+    public boolean load() {
+        if (!this.snapshotFile.exists()) {
+            this.logger.info("No snapshot at '{}', cold starting", this.snapshotFile);
+            return false;
+        }
+        
+        final long start = System.currentTimeMillis();
+        try {
+            final RandomAccessFile raf = new RandomAccessFile(this.snapshotFile, "r");
+            try {
+                final FileChannel channel = raf.getChannel();
+                final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                
+                final Map<String, ByteBuffer> entries;
+                try {
+                    entries = this.readEntries(buffer);
+                }
+                catch (BufferUnderflowException bue) {
+                    this.logger.warn("Snapshot '{}' is truncated, cold starting", this.snapshotFile);
+                    return false;
+                }
+                if (entries == null) {
+                    return false;
+                }
+                
+                for (final SnapshotParticipant participant : this.getParticipants()) {
+                    final ByteBuffer entry = entries.get(participant.getSnapshotName() + "@" + participant.getSnapshotVersion());
+                    if (entry == null) {
+                        this.logger.info("No compatible snapshot for {}, cold starting it", participant.getSnapshotName());
+                        continue;
+                    }
+                    
+                    try {
+                        participant.loadSnapshot(entry);
+                        this.logger.debug("Loaded {} byte snapshot for {}", entry.capacity(), participant.getSnapshotName());
+                    }
+                    catch (Exception e) {
+                        this.logger.warn("Failed to load snapshot for " + participant.getSnapshotName() + ", cold starting it", e);
+                    }
+                }
+            }
+            finally {
+                raf.close();
+            }
+        }
+        catch (IOException ioe) {
+            this.logger.warn("Failed to read snapshot '" + this.snapshotFile + "', cold starting", ioe);
+            return false;
+        }
+        finally {
+            if (!this.snapshotFile.delete()) {
+                this.logger.warn("Failed to delete snapshot '{}' after loading", this.snapshotFile);
+            }
+        }
+        
+        this.logger.info("Loaded snapshot '{}' in {}ms", this.snapshotFile, System.currentTimeMillis() - start);
+        return true;
+    }
+    
+    /**
+     * Writes the state of all participants to the snapshot file
+     */
+    public void shutdown() {
+        final long start = System.currentTimeMillis();
+        final List<SnapshotParticipant> participants = this.getParticipants();
+        if (participants.isEmpty()) {
+            return;
+        }
+        
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(this.writerThreads, participants.size()));
+        final Map<SnapshotParticipant, Future<byte[]>> writes = new LinkedHashMap<SnapshotParticipant, Future<byte[]>>();
+        final AtomicLong remainingSize = new AtomicLong(this.maxSnapshotSize - HEADER_SIZE);
+        try {
+            for (final SnapshotParticipant participant : participants) {
+                writes.put(participant, executor.submit(new Callable<byte[]>() {
+                    public byte[] call() throws Exception {
+                        final SizeLimitedOutputStream out = new SizeLimitedOutputStream(remainingSize);
+                        try {
+                            out.reserve(ENTRY_HEADER_SIZE + getNameBytes(participant).length);
+                            participant.writeSnapshot(out);
+                            
+                            //The participant may have swallowed the exception, its state is incomplete
+                            if (out.isExceeded()) {
+                                throw new SnapshotTooLargeException();
+                            }
+                        }
+                        catch (Exception e) {
+                            out.release();
+                            throw e;
+                        }
+                        return out.toByteArray();
+                    }
+                }));
+            }
+            
+            final long deadline = start + this.writeTimeout;
+            final Map<SnapshotParticipant, byte[]> states = new LinkedHashMap<SnapshotParticipant, byte[]>();
+            long size = HEADER_SIZE;
+            for (final Map.Entry<SnapshotParticipant, Future<byte[]>> write : writes.entrySet()) {
+                final SnapshotParticipant participant = write.getKey();
+                final byte[] state;
+                try {
+                    state = write.getValue().get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                }
+                catch (TimeoutException te) {
+                    write.getValue().cancel(true);
+                    this.logger.warn("Timed out writing snapshot for {}, it will cold start", participant.getSnapshotName());
+                    continue;
+                }
+                catch (ExecutionException ee) {
+                    if (ee.getCause() instanceof SnapshotTooLargeException) {
+                        this.logger.warn("Snapshot for {} would exceed the maximum snapshot size of {}, it will cold start", 
+                                participant.getSnapshotName(), this.maxSnapshotSize);
+                        continue;
+                    }
+                    this.logger.warn("Failed to write snapshot for " + participant.getSnapshotName() + ", it will cold start", ee.getCause());
+                    continue;
+                }
+                
+                final byte[] name = getNameBytes(participant);
+                if (name.length > MAX_NAME_LENGTH) {
+                    this.logger.warn("Snapshot name of {} is {} bytes and exceeds the maximum of {}, it will cold start", 
+                            new Object[] { participant, name.length, MAX_NAME_LENGTH });
+                    continue;
+                }
+                
+                size += ENTRY_HEADER_SIZE + name.length + state.length;
+                states.put(participant, state);
+            }
+            
+            this.writeSnapshot(states, size);
+            this.logger.info("Wrote {} byte snapshot of {} participants to '{}' in {}ms", 
+                    new Object[] { size, states.size(), this.snapshotFile, System.currentTimeMillis() - start });
+        }
+        catch (InterruptedException e) {
+            this.logger.warn("Interrupted while writing snapshot, next start will be cold", e);
+            Thread.currentThread().interrupt();
+        }
+        catch (IOException ioe) {
+            this.logger.warn("Failed to write snapshot '" + this.snapshotFile + "', next start will be cold", ioe);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    protected synchronized List<SnapshotParticipant> getParticipants() {
+        return new ArrayList<SnapshotParticipant>(this.participants);
+    }
+
+    /**
+     * Writes the entries to a temporary file and then atomically moves it over the snapshot file so a partial snapshot
+     * is never visible, the temporary file is removed if the write fails
+     */
+    private void writeSnapshot(Map<SnapshotParticipant, byte[]> states, long size) throws IOException {
+        final File tempFile = new File(this.snapshotFile.getPath() + ".tmp");
+        boolean written = false;
+        try {
+            this.writeEntries(tempFile, states, size);
+            Files.move(tempFile.toPath(), this.snapshotFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            written = true;
+        }
+        finally {
+            if (!written && tempFile.exists() && !tempFile.delete()) {
+                this.logger.warn("Failed to delete temporary snapshot '{}'", tempFile);
+            }
+        }
+    }
+    
+    private void writeEntries(File tempFile, Map<SnapshotParticipant, byte[]> states, long size) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(tempFile, "rw");
+        try {
+            raf.setLength(size);
+            final MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            
+            buffer.putInt(MAGIC);
+            buffer.putInt(FORMAT_VERSION);
+            buffer.putInt(states.size());
+            
+            final CRC32 crc = new CRC32();
+            for (final Map.Entry<SnapshotParticipant, byte[]> state : states.entrySet()) {
+                final SnapshotParticipant participant = state.getKey();
+                final byte[] name = getNameBytes(participant);
+                final byte[] data = state.getValue();
+                
+                crc.reset();
+                crc.update(data);
+                
+                //Lengths up to MAX_NAME_LENGTH are stored as an unsigned short
+                buffer.putShort((short) name.length);
+                buffer.put(name);
+                buffer.putInt(participant.getSnapshotVersion());
+                buffer.putInt(data.length);
+                buffer.putLong(crc.getValue());
+                buffer.put(data);
+            }
+            
+            buffer.force();
+        }
+        finally {
+            raf.close();
+        }
+    }
+    
+    /**
+     * Validates the snapshot and slices it into entries keyed by name@version
+     * 
+     * @return null if the snapshot is not valid
+     */
+    private Map<String, ByteBuffer> readEntries(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != MAGIC) {
+            this.logger.warn("'{}' is not a snapshot file, cold starting", this.snapshotFile);
+            return null;
+        }
+        final int formatVersion = buffer.getInt();
+        if (formatVersion != FORMAT_VERSION) {
+            this.logger.warn("Snapshot '{}' has unsupported format version {}, cold starting", this.snapshotFile, formatVersion);
+            return null;
+        }
+        
+        final int entryCount = buffer.getInt();
+        final Map<String, ByteBuffer> entries = new LinkedHashMap<String, ByteBuffer>();
+        final CRC32 crc = new CRC32();
+        final byte[] chunkBuffer = new byte[8192];
+        for (int i = 0; i < entryCount; i++) {
+            final byte[] name = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(name);
+            final int version = buffer.getInt();
+            final int length = buffer.getInt();
+            final long checksum = buffer.getLong();
+            if (length < 0 || length > buffer.remaining()) {
+                throw new BufferUnderflowException();
+            }
+            
+            final ByteBuffer data = buffer.slice();
+            data.limit(length);
+            buffer.position(buffer.position() + length);
+            
+            crc.reset();
+            final ByteBuffer checksumView = data.duplicate();
+            while (checksumView.hasRemaining()) {
+                final int chunk = Math.min(chunkBuffer.length, checksumView.remaining());
+                checksumView.get(chunkBuffer, 0, chunk);
+                crc.update(chunkBuffer, 0, chunk);
+            }
+            if (crc.getValue() != checksum) {
+                this.logger.warn("Snapshot '{}' failed checksum validation, cold starting", this.snapshotFile);
+                return null;
+            }
+            
+            entries.put(new String(name, "UTF-8") + "@" + version, data.asReadOnlyBuffer());
+        }
+        
+        return entries;
+    }
+
+    @Override
+    public String toString() {
+        return "SnapshotManager [snapshotFile=" + snapshotFile + "]";
+    }
+    
+    /**
+     * Thrown when a participant writes past the space left in the snapshot
+     */
+    private static class SnapshotTooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public SnapshotTooLargeException() {
+            super("Snapshot would exceed the maximum snapshot size");
+        }
+    }
+    
+    /**
+     * Buffers a participant's state, reserving space from the budget shared by all participants before each write so
+     * a participant can never buffer more than the space left in the snapshot
+     */
+    private static class SizeLimitedOutputStream extends OutputStream {
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private final AtomicLong remainingSize;
+        private long reserved = 0;
+        private boolean exceeded = false;
+        
+        public SizeLimitedOutputStream(AtomicLong remainingSize) {
+            this.remainingSize = remainingSize;
+        }
+        
+        /**
+         * Reserves space from the budget, throws without reserving anything if there is not enough space left
+         */
+        public void reserve(long size) throws SnapshotTooLargeException {
+            long remaining;
+            do {
+                remaining = this.remainingSize.get();
+                if (size > remaining) {
+                    this.exceeded = true;
+                    throw new SnapshotTooLargeException();
+                }
+            } while (!this.remainingSize.compareAndSet(remaining, remaining - size));
+            this.reserved += size;
+        }
+        
+        /**
+         * Returns the reserved space to the budget once the entry will not be written
+         */
+        public void release() {
+            this.remainingSize.addAndGet(this.reserved);
+            this.reserved = 0;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.reserve(1);
+            this.buffer.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.reserve(len);
+            this.buffer.write(b, off, len);
+        }
+        
+        public boolean isExceeded() {
+            return this.exceeded;
+        }
+        
+        public byte[] toByteArray() {
+            return this.buffer.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener.snapshot;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Component with in-memory state that should survive a restart. State is written by {@link SnapshotManager}
+ * during shutdown and handed back on the next start.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public interface SnapshotParticipant {
+    /**
+     * @return Unique name identifying this participant's state in the snapshot file
+     */
+    public String getSnapshotName();
+    
+    /**
+     * @return Version of the state format, state written with a different version is not loaded
+     */
+    public int getSnapshotVersion();
+    
+    /**
+     * Write the participant's state to the stream, called in parallel with other participants during shutdown
+     */
+    public void writeSnapshot(OutputStream out) throws IOException;
+    
+    /**
+     * Load state previously written by {@link #writeSnapshot(OutputStream)}. The buffer is read-only and backed
+     * by the memory-mapped snapshot file so it must not be retained after the method returns.
+     */
+    public void loadSnapshot(ByteBuffer snapshot) throws IOException;
+}
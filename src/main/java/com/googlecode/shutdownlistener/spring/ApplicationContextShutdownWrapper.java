@@ -24,6 +24,7 @@ import org.springframework.context.support.GenericApplicationContext;
 import org.springframework.util.Assert;
 
 import com.googlecode.shutdownlistener.ShutdownHandler;
+import com.googlecode.shutdownlistener.ShutdownTrace;
 
 /**
  * Utility that wraps an {@link ApplicationContext} to handle shutting down. If the provided context contains
@@ -77,13 +78,30 @@ public final class ApplicationContextShutdownWrapper {
 
     /**
      * Uses {@link ShutdownHandler#waitForShutdown()} then calls {@link DisposableBean#destroy()} on the
-     * {@link ApplicationContext}
+     * {@link ApplicationContext}. The destroy is added to the {@link ShutdownHandler#getShutdownTrace()}.
      */
     public void waitForShutdown() throws Exception {
         this.shutdownHandler.waitForShutdown();
-        this.disposableBean.destroy();
+        
+        final ShutdownTrace shutdownTrace = this.shutdownHandler.getShutdownTrace();
+        ShutdownTrace.Span span = shutdownTrace.begin("Destroy " + this.applicationContext.getDisplayName(), "context");
+        try {
+            this.disposableBean.destroy();
+        }
+        finally {
+            span.end();
+        }
+        
         if (this.shutdownBeanFactory != null) {
-            this.shutdownBeanFactory.destroy();
+            span = shutdownTrace.begin("Destroy " + this.shutdownBeanFactory.getDisplayName(), "context");
+            try {
+                this.shutdownBeanFactory.destroy();
+            }
+            finally {
+                span.end();
+            }
         }
+        
+        this.shutdownHandler.writeShutdownTrace();
     }
 }
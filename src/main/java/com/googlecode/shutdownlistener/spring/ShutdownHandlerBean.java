@@ -27,10 +27,13 @@ import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.core.OrderComparator;
 
 import com.googlecode.shutdownlistener.ShutdownHandler;
 import com.googlecode.shutdownlistener.ShutdownListener;
+import com.googlecode.shutdownlistener.StartupListener;
 
 /**
  * Spring Bean version of {@link ShutdownHandler} that makes use of Spring's initialization and disposal features
@@ -38,14 +41,20 @@ import com.googlecode.shutdownlistener.ShutdownListener;
  * 
  * If no {@link #setShutdownListeners(java.util.Collection)} are set the class will use 
  * {@link BeanFactoryUtils#beansOfTypeIncludingAncestors(org.springframework.beans.factory.ListableBeanFactory, Class)} to
- * find all beans that implement {@link ShutdownListener} and register them.
+ * find all beans that implement {@link ShutdownListener} and register them. {@link StartupListener}s are found the same
+ * way if no {@link #setStartupListeners(java.util.Collection)} are set, they are run once the {@link ApplicationContext}
+ * has been refreshed so the handler only reports ready after every bean has been initialized.
  * 
  * @author Eric Dalquist
  * @version $Revision$
  */
-public class ShutdownHandlerBean extends ShutdownHandler implements InitializingBean, DisposableBean, ApplicationContextAware {
+public class ShutdownHandlerBean extends ShutdownHandler implements InitializingBean, DisposableBean, ApplicationContextAware, ApplicationListener<ContextRefreshedEvent> {
     private ApplicationContext applicationContext;
     
+    public ShutdownHandlerBean() {
+        this.setDeferStartup(true);
+    }
+    
     public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
         this.applicationContext = applicationContext;
     }
@@ -58,13 +67,36 @@ public class ShutdownHandlerBean extends ShutdownHandler implements Initializing
     public void afterPropertiesSet() throws Exception {
         if (this.shutdownListeners == null) {
             final Map<String, ShutdownListener> shutdownListenerMap = BeanFactoryUtils.beansOfTypeIncludingAncestors(this.applicationContext, ShutdownListener.class);
-            this.shutdownListeners = new ArrayList<ShutdownListener>(shutdownListenerMap.values());
+            //Registered through the setter so each listener is assigned its history key up front
+            this.setShutdownListeners(new ArrayList<ShutdownListener>(shutdownListenerMap.values()));
             this.logger.debug("No explicit shutdownListeners configured, using {} ShutdownListeners from application context.", this.shutdownListeners.size());
         }
+        if (this.startupListeners == null) {
+            final Map<String, StartupListener> startupListenerMap = BeanFactoryUtils.beansOfTypeIncludingAncestors(this.applicationContext, StartupListener.class);
+            this.startupListeners = new ArrayList<StartupListener>(startupListenerMap.values());
+            this.logger.debug("No explicit startupListeners configured, using {} StartupListeners from application context.", this.startupListeners.size());
+        }
         
         this.start();
     }
     
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        //Ignore refresh events from child contexts
+        if (event.getApplicationContext() != this.applicationContext) {
+            return;
+        }
+        
+        try {
+            this.startup();
+        }
+        catch (RuntimeException re) {
+            throw re;
+        }
+        catch (Exception e) {
+            throw new IllegalStateException("Application startup failed", e);
+        }
+    }
+    
     public void destroy() throws Exception {
         this.shutdown();
     }
@@ -16,6 +16,9 @@
 
 package com.googlecode.shutdownlistener;
 
+import java.io.File;
+import java.nio.file.Files;
+
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -45,6 +48,9 @@ public class ContextShutdownTest {
         final ApplicationContextShutdownWrapper shutdownWrapper = new ApplicationContextShutdownWrapper(context);
         
         Assert.assertFalse(StaticTrackingShutdownListener.isShutdown());
+        Assert.assertTrue("Ephemeral port should be published", new File(ShutdownConfiguration.getInstance().getPortFile()).exists());
+        final File traceFile = new File(ShutdownConfiguration.getInstance().getTraceFile());
+        traceFile.delete();
         
         final Thread shutdownCall = new Thread(new Runnable() {
             
@@ -65,6 +71,10 @@ public class ContextShutdownTest {
         shutdownWrapper.waitForShutdown();
         
         Assert.assertTrue(StaticTrackingShutdownListener.isShutdown());
+        Assert.assertFalse("Port file should be removed on shutdown", new File(ShutdownConfiguration.getInstance().getPortFile()).exists());
+        final String trace = new String(Files.readAllBytes(traceFile.toPath()), "UTF-8");
+        Assert.assertTrue("Trace should include listener spans", trace.contains("\"cat\":\"listener\""));
+        Assert.assertTrue("Trace should include context destroy spans", trace.contains("\"cat\":\"context\""));
         
         shutdownWrapper.waitForShutdown();
     }
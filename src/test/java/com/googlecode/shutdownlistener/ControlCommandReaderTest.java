@@ -0,0 +1,158 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener;
+
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.googlecode.shutdownlistener.ControlCommandReader.CommandTooLongException;
+
+/**
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class ControlCommandReaderTest {
+    private ServerSocket serverSocket;
+    private Socket client;
+    private Socket connection;
+    
+    @Before
+    public void setupTest() throws Exception {
+        this.serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        this.client = new Socket(this.serverSocket.getInetAddress(), this.serverSocket.getLocalPort());
+        this.connection = this.serverSocket.accept();
+    }
+    
+    @After
+    public void teardownTest() throws Exception {
+        this.client.close();
+        this.connection.close();
+        this.serverSocket.close();
+    }
+    
+    @Test(timeout=5000)
+    public void testReadCommand() throws Exception {
+        this.send("STATUS\nignored");
+        Assert.assertEquals("STATUS", new ControlCommandReader(16, 1000).readCommand(this.connection));
+    }
+    
+    @Test(timeout=5000)
+    public void testCrLfTerminator() throws Exception {
+        this.send("STATUS\r\n");
+        Assert.assertEquals("STATUS", new ControlCommandReader(16, 1000).readCommand(this.connection));
+    }
+    
+    @Test(timeout=5000)
+    public void testCommandWithoutTerminator() throws Exception {
+        this.send("STATUS");
+        this.client.shutdownOutput();
+        Assert.assertEquals("STATUS", new ControlCommandReader(16, 1000).readCommand(this.connection));
+    }
+    
+    @Test(timeout=5000)
+    public void testEmptyConnection() throws Exception {
+        this.client.shutdownOutput();
+        Assert.assertNull(new ControlCommandReader(16, 1000).readCommand(this.connection));
+    }
+    
+    @Test(timeout=5000)
+    public void testMaxLengthCommand() throws Exception {
+        this.send("0123456789\r\n");
+        Assert.assertEquals("0123456789", new ControlCommandReader(10, 1000).readCommand(this.connection));
+    }
+    
+    @Test(timeout=5000)
+    public void testCommandTooLong() throws Exception {
+        this.send("0123456789A\n");
+        try {
+            new ControlCommandReader(10, 1000).readCommand(this.connection);
+            Assert.fail("Command longer than the maximum length must be rejected");
+        }
+        catch (CommandTooLongException e) {
+            //Expected
+        }
+    }
+    
+    @Test(timeout=5000)
+    public void testCommandTooLongWithoutTerminator() throws Exception {
+        this.send("0123456789ABCDEF");
+        try {
+            new ControlCommandReader(10, 1000).readCommand(this.connection);
+            Assert.fail("Command longer than the maximum length must be rejected");
+        }
+        catch (CommandTooLongException e) {
+            //Expected
+        }
+    }
+    
+    @Test(timeout=5000)
+    public void testReadDeadline() throws Exception {
+        final ControlCommandReader reader = new ControlCommandReader(16, 300);
+        
+        //Trickle the command so each read succeeds but the whole command misses the deadline
+        final Thread sender = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    for (final char c : "STATUS".toCharArray()) {
+                        send(String.valueOf(c));
+                        Thread.sleep(100);
+                    }
+                }
+                catch (Exception e) {
+                    //Connection closed by the test
+                }
+            }
+        });
+        sender.start();
+        
+        final long start = System.currentTimeMillis();
+        try {
+            reader.readCommand(this.connection);
+            Assert.fail("Command must not be accepted after the read deadline");
+        }
+        catch (SocketTimeoutException e) {
+            final long elapsed = System.currentTimeMillis() - start;
+            Assert.assertTrue("Timed out after " + elapsed + "ms", elapsed < 1000);
+        }
+        sender.join();
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void testZeroReadTimeout() {
+        new ControlCommandReader(16, 0);
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void testNegativeMaxCommandLength() {
+        new ControlCommandReader(-1, 500);
+    }
+    
+    private void send(String data) throws Exception {
+        final OutputStream out = this.client.getOutputStream();
+        out.write(data.getBytes("UTF-8"));
+        out.flush();
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class DrainingExecutorServiceTest {
+    @Test(timeout=5000)
+    public void testDrainCompletesQueuedTasks() throws Exception {
+        final ShutdownHandler shutdownHandler = new ShutdownHandler();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        final DrainingExecutorService executorService = new DrainingExecutorService(shutdownHandler, executor, "test");
+        
+        final AtomicInteger count = new AtomicInteger();
+        for (int i = 0; i < 10; i++) {
+            executorService.execute(new Runnable() {
+                public void run() {
+                    count.incrementAndGet();
+                }
+            });
+        }
+        
+        shutdownHandler.shutdown();
+        
+        Assert.assertEquals(10, count.get());
+        Assert.assertTrue(executorService.isTerminated());
+        Assert.assertTrue(executorService.getUnexecutedTasks().isEmpty());
+        
+        try {
+            executorService.execute(new Runnable() {
+                public void run() {
+                }
+            });
+            Assert.fail("Submission after drain should be rejected");
+        }
+        catch (RejectedExecutionException ree) {
+            //Expected
+        }
+    }
+    
+    @Test(timeout=5000)
+    public void testDrainTimeoutReturnsUnexecutedTasks() throws Exception {
+        final ShutdownHandler shutdownHandler = new ShutdownHandler();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        final DrainingExecutorService executorService = new DrainingExecutorService(shutdownHandler, executor, "test");
+        executorService.setDrainTimeout(100);
+        
+        final CountDownLatch blocker = new CountDownLatch(1);
+        executorService.execute(new Runnable() {
+            public void run() {
+                try {
+                    blocker.await();
+                }
+                catch (InterruptedException e) {
+                    //Expected when the drain times out
+                }
+            }
+        });
+        for (int i = 0; i < 5; i++) {
+            executorService.execute(new Runnable() {
+                public void run() {
+                }
+            });
+        }
+        
+        shutdownHandler.shutdown();
+        
+        Assert.assertEquals(5, executorService.getUnexecutedTasks().size());
+    }
+    
+    @Test(timeout=5000)
+    public void testRejectionAfterDrainUsesDrainHandler() throws Exception {
+        final ShutdownHandler shutdownHandler = new ShutdownHandler();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), 
+                new ThreadPoolExecutor.DiscardPolicy());
+        final DrainingExecutorService executorService = new DrainingExecutorService(shutdownHandler, executor, "test");
+        
+        final List<Runnable> rejected = Collections.synchronizedList(new ArrayList<Runnable>());
+        executorService.setDrainRejectionHandler(new RejectedExecutionHandler() {
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                rejected.add(r);
+            }
+        });
+        
+        shutdownHandler.shutdown();
+        
+        //A submitter that passed the draining check just before the drain started reaches the shut down executor
+        final Runnable lateTask = new Runnable() {
+            public void run() {
+            }
+        };
+        executor.execute(lateTask);
+        Assert.assertEquals(Collections.singletonList(lateTask), rejected);
+        
+        final Runnable drainingTask = new Runnable() {
+            public void run() {
+            }
+        };
+        executorService.execute(drainingTask);
+        Assert.assertEquals(Arrays.asList(lateTask, drainingTask), rejected);
+    }
+}
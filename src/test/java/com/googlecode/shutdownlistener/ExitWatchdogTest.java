@@ -0,0 +1,169 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class ExitWatchdogTest {
+    private final CountDownLatch releaseThreads = new CountDownLatch(1);
+    private Thread lingeringThread;
+    private Thread daemonThread;
+    
+    @Before
+    public void setupTest() {
+        this.lingeringThread = this.startThread("Lingering", false);
+        this.daemonThread = this.startThread("Daemon", true);
+    }
+    
+    @After
+    public void teardownTest() throws Exception {
+        this.releaseThreads.countDown();
+        this.lingeringThread.join();
+        this.daemonThread.join();
+    }
+    
+    @Test
+    public void testLingeringThreads() throws Exception {
+        final ExitWatchdog exitWatchdog = new ExitWatchdog(new ShutdownHandler());
+        
+        Assert.assertTrue(exitWatchdog.getLingeringThreads().containsKey(this.lingeringThread));
+        Assert.assertFalse(exitWatchdog.getLingeringThreads().containsKey(this.daemonThread));
+    }
+    
+    @Test(timeout=5000)
+    public void testHaltsWithLingeringThreads() throws Exception {
+        final ShutdownHandler shutdownHandler = new ShutdownHandler();
+        shutdownHandler.startup();
+        shutdownHandler.shutdown();
+        
+        final RecordingExitWatchdog exitWatchdog = new RecordingExitWatchdog(shutdownHandler, false);
+        exitWatchdog.setGracePeriod(10);
+        exitWatchdog.setExitCode(3);
+        exitWatchdog.run();
+        
+        Assert.assertEquals(3, exitWatchdog.haltStatus);
+    }
+    
+    @Test
+    public void testApplicationThreadNotLingering() throws Exception {
+        final ExitWatchdog exitWatchdog = new ExitWatchdog(new ShutdownHandler());
+        Assert.assertFalse("Creating thread is the default application thread", 
+                exitWatchdog.getLingeringThreads().containsKey(Thread.currentThread()));
+        
+        exitWatchdog.setApplicationThread(this.lingeringThread);
+        Assert.assertFalse(exitWatchdog.getLingeringThreads().containsKey(this.lingeringThread));
+    }
+    
+    @Test(timeout=5000)
+    public void testWaitsForApplicationThread() throws Exception {
+        final ShutdownHandler shutdownHandler = new ShutdownHandler();
+        shutdownHandler.startup();
+        shutdownHandler.shutdown();
+        
+        final CountDownLatch releaseApplication = new CountDownLatch(1);
+        final Thread applicationThread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    releaseApplication.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "ExitWatchdogTest-Application");
+        applicationThread.start();
+        
+        final RecordingExitWatchdog exitWatchdog = new RecordingExitWatchdog(shutdownHandler, false);
+        exitWatchdog.setApplicationThread(applicationThread);
+        exitWatchdog.setGracePeriod(10);
+        final Thread watchdogThread = new Thread(exitWatchdog, "ExitWatchdogTest-Watchdog");
+        watchdogThread.start();
+        
+        watchdogThread.join(200);
+        Assert.assertTrue("Grace period must not start while the application thread is running", watchdogThread.isAlive());
+        Assert.assertEquals(-1, exitWatchdog.haltStatus);
+        
+        releaseApplication.countDown();
+        watchdogThread.join();
+        
+        Assert.assertEquals(0, exitWatchdog.haltStatus);
+    }
+    
+    @Test(timeout=5000)
+    public void testKeepsPendingExitStatus() throws Exception {
+        final ShutdownHandler shutdownHandler = new ShutdownHandler();
+        shutdownHandler.startup();
+        shutdownHandler.shutdown();
+        
+        final RecordingExitWatchdog exitWatchdog = new RecordingExitWatchdog(shutdownHandler, true);
+        exitWatchdog.setGracePeriod(10);
+        exitWatchdog.run();
+        
+        Assert.assertEquals("A JVM that is already exiting must not be halted", -1, exitWatchdog.haltStatus);
+    }
+    
+    @Test
+    public void testJvmNotExiting() {
+        Assert.assertFalse(new ExitWatchdog(new ShutdownHandler()).isJvmExiting());
+    }
+    
+    private Thread startThread(String name, boolean daemon) {
+        final Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    releaseThreads.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "ExitWatchdogTest-" + name);
+        thread.setDaemon(daemon);
+        thread.start();
+        return thread;
+    }
+    
+    private static class RecordingExitWatchdog extends ExitWatchdog {
+        private final boolean jvmExiting;
+        private volatile int haltStatus = -1;
+        
+        public RecordingExitWatchdog(ShutdownHandler shutdownHandler, boolean jvmExiting) {
+            super(shutdownHandler);
+            this.jvmExiting = jvmExiting;
+        }
+
+        @Override
+        protected void halt(int status) {
+            this.haltStatus = status;
+        }
+
+        @Override
+        protected boolean isJvmExiting() {
+            return this.jvmExiting;
+        }
+    }
+}
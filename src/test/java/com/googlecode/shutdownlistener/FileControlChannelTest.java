@@ -0,0 +1,174 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class FileControlChannelTest {
+    private File controlDirectory;
+    private ShutdownHandler shutdownHandler;
+    private FileControlChannel fileControlChannel;
+    
+    @Before
+    public void setupTest() throws Exception {
+        ShutdownConfiguration.deleteInstance();
+        System.setProperty(ShutdownConfiguration.CONFIGURATION_SYSTEM_PROPERTY, "/shutdown-listener-test.properties");
+        
+        this.controlDirectory = Files.createTempDirectory(new File("target").toPath(), "shutdown-control").toFile();
+        this.shutdownHandler = new ShutdownHandler();
+        this.shutdownHandler.startup();
+    }
+    
+    @After
+    public void teardownTest() {
+        if (this.fileControlChannel != null) {
+            this.fileControlChannel.shutdown();
+        }
+        this.shutdownHandler.shutdown();
+        System.getProperties().remove(ShutdownConfiguration.CONFIGURATION_SYSTEM_PROPERTY);
+        ShutdownConfiguration.deleteInstance();
+    }
+    
+    @Test(timeout=10000)
+    public void testStatusCommand() throws Exception {
+        this.startChannel();
+        
+        final List<String> status = this.sendCommand("status", "S\n");
+        Assert.assertEquals(1, status.size());
+        Assert.assertTrue(status.get(0), status.get(0).endsWith(": Running"));
+        
+        Assert.assertFalse(new File(this.controlDirectory, "status.cmd").exists());
+        Assert.assertFalse(new File(this.controlDirectory, "status.processing").exists());
+    }
+    
+    @Test(timeout=10000)
+    public void testUnknownCommand() throws Exception {
+        this.startChannel();
+        
+        final List<String> status = this.sendCommand("unknown", "BOGUS\nS\n");
+        Assert.assertEquals(1, status.size());
+        Assert.assertTrue(status.get(0), status.get(0).endsWith(": Unknown command 'BOGUS'"));
+    }
+    
+    @Test(timeout=10000)
+    public void testEmptyCommand() throws Exception {
+        this.startChannel();
+        
+        final List<String> status = this.sendCommand("empty", "\n");
+        Assert.assertEquals(1, status.size());
+        Assert.assertTrue(status.get(0), status.get(0).endsWith(": Unknown command ''"));
+    }
+    
+    @Test(timeout=10000)
+    public void testZeroLengthCommand() throws Exception {
+        this.startChannel();
+        
+        final List<String> status = this.sendCommand("zero", "");
+        Assert.assertEquals(1, status.size());
+        Assert.assertTrue(status.get(0), status.get(0).endsWith(": Unknown command ''"));
+        
+        Assert.assertFalse(new File(this.controlDirectory, "zero.cmd").exists());
+        Assert.assertFalse(new File(this.controlDirectory, "zero.processing").exists());
+    }
+    
+    @Test(timeout=10000)
+    public void testCommandLimit() throws Exception {
+        ShutdownConfiguration.deleteInstance();
+        System.setProperty(ShutdownConfiguration.CONFIGURATION_SYSTEM_PROPERTY, "/shutdown-listener-limits-test.properties");
+        
+        final CountDownLatch shutdownStarted = new CountDownLatch(1);
+        final CountDownLatch releaseShutdown = new CountDownLatch(1);
+        this.shutdownHandler.registerShutdownListener(new ShutdownListener() {
+            public void shutdown() {
+                shutdownStarted.countDown();
+                try {
+                    releaseShutdown.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        this.startChannel();
+        
+        //Hold the only permit with a shutdown that waits for the listener
+        this.sendCommand("shutdown", "SHUTDOWN_AND_WAIT\n");
+        shutdownStarted.await();
+        
+        final List<String> status = this.sendCommand("status", "S\n");
+        Assert.assertEquals(1, status.size());
+        Assert.assertTrue(status.get(0), status.get(0).endsWith(": Too many commands"));
+        Assert.assertFalse(new File(this.controlDirectory, "status.processing").exists());
+        
+        releaseShutdown.countDown();
+    }
+    
+    @Test(timeout=10000)
+    public void testStaleCommandsRenamed() throws Exception {
+        Files.write(new File(this.controlDirectory, "old.cmd").toPath(), "SNW\n".getBytes("UTF-8"));
+        Files.write(new File(this.controlDirectory, "crashed.processing").toPath(), "SNW\n".getBytes("UTF-8"));
+        
+        this.startChannel();
+        
+        Assert.assertFalse(new File(this.controlDirectory, "old.cmd").exists());
+        Assert.assertTrue(new File(this.controlDirectory, "old.cmd.stale").exists());
+        Assert.assertFalse(new File(this.controlDirectory, "crashed.processing").exists());
+        Assert.assertTrue(new File(this.controlDirectory, "crashed.processing.stale").exists());
+        
+        //The channel still handles new commands and never ran the stale shutdown
+        final List<String> status = this.sendCommand("status", "S\n");
+        Assert.assertTrue(status.get(0), status.get(0).endsWith(": Running"));
+        Assert.assertFalse(new File(this.controlDirectory, "old.status").exists());
+    }
+    
+    private void startChannel() {
+        this.fileControlChannel = new FileControlChannel(this.shutdownHandler, this.controlDirectory);
+        final Thread fileControlThread = new Thread(this.fileControlChannel, "FileControlChannelTest");
+        fileControlThread.setDaemon(true);
+        fileControlThread.start();
+    }
+    
+    /**
+     * Writes the command next to the directory and moves it in, then waits for the status file
+     */
+    private List<String> sendCommand(String name, String command) throws Exception {
+        final Path tempFile = new File(this.controlDirectory.getParentFile(), this.controlDirectory.getName() + "-" + name + FileControlChannel.COMMAND_SUFFIX).toPath();
+        Files.write(tempFile, command.getBytes("UTF-8"));
+        Files.move(tempFile, new File(this.controlDirectory, name + FileControlChannel.COMMAND_SUFFIX).toPath());
+        
+        final Path statusFile = new File(this.controlDirectory, name + FileControlChannel.STATUS_SUFFIX).toPath();
+        while (!Files.exists(statusFile)) {
+            Thread.sleep(10);
+        }
+        return Files.readAllLines(statusFile, Charset.forName("UTF-8"));
+    }
+}
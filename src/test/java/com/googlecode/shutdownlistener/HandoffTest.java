@@ -0,0 +1,144 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.googlecode.shutdownlistener.mock.RecordingShutdownListener;
+
+/**
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class HandoffTest {
+    @Before
+    public void setupTest() throws Exception {
+        ShutdownConfiguration.deleteInstance();
+        System.setProperty(ShutdownConfiguration.CONFIGURATION_SYSTEM_PROPERTY, "/shutdown-listener-test.properties");
+    }
+    
+    @After
+    public void teardownTest() {
+        System.getProperties().remove(ShutdownConfiguration.CONFIGURATION_SYSTEM_PROPERTY);
+        ShutdownConfiguration.deleteInstance();
+    }
+    
+    @Test(timeout=5000)
+    public void testStopAcceptingBeforeShutdown() throws Exception {
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        
+        final ShutdownHandler shutdownHandler = new ShutdownHandler();
+        shutdownHandler.registerShutdownListener(new RecordingShutdownListener("plain", null, events));
+        shutdownHandler.registerShutdownListener(new RecordingHandoffListener("web", events));
+        shutdownHandler.registerShutdownListener(new RecordingHandoffListener("queue", events));
+        shutdownHandler.startup();
+        
+        shutdownHandler.handoff();
+        
+        Assert.assertTrue(shutdownHandler.isShutdownComplete());
+        Assert.assertEquals(5, events.size());
+        Assert.assertEquals(Arrays.asList("stopAccepting web", "stopAccepting queue"), events.subList(0, 2));
+        Assert.assertTrue(events.toString(), events.subList(2, 5).containsAll(Arrays.asList("plain", "web", "queue")));
+    }
+    
+    @Test(timeout=10000)
+    public void testStartWithHandoff() throws Exception {
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        
+        final ShutdownHandler runningHandler = new ShutdownHandler();
+        runningHandler.registerShutdownListener(new RecordingHandoffListener("old", events));
+        runningHandler.start();
+        final int runningPort = runningHandler.getBoundPort();
+        
+        final ShutdownHandler replacementHandler = new ShutdownHandler();
+        try {
+            //Sends the handoff command over the loopback socket found through the port file
+            replacementHandler.startWithHandoff();
+            
+            Assert.assertTrue("startWithHandoff must wait for the running instance to shut down", runningHandler.isShutdownComplete());
+            Assert.assertEquals(Arrays.asList("stopAccepting old", "old"), events);
+            Assert.assertEquals(LifecycleState.READY, replacementHandler.getState());
+            Assert.assertTrue(replacementHandler.getBoundPort() > 0);
+            Assert.assertFalse(runningPort == replacementHandler.getBoundPort());
+        }
+        finally {
+            replacementHandler.shutdown();
+        }
+    }
+    
+    @Test(timeout=5000)
+    public void testStartWithHandoffWithoutRunningInstance() throws Exception {
+        new File(ShutdownConfiguration.getInstance().getPortFile()).delete();
+        
+        final ShutdownHandler shutdownHandler = new ShutdownHandler();
+        try {
+            shutdownHandler.startWithHandoff();
+            Assert.assertEquals(LifecycleState.READY, shutdownHandler.getState());
+        }
+        finally {
+            shutdownHandler.shutdown();
+        }
+    }
+    
+    @Test(timeout=5000)
+    public void testStartWithHandoffTimeout() throws Exception {
+        ShutdownConfiguration.deleteInstance();
+        System.setProperty(ShutdownConfiguration.CONFIGURATION_SYSTEM_PROPERTY, "/shutdown-listener-handoff-test.properties");
+        
+        //An instance that accepts the connection but never answers
+        final ServerSocket hungInstance = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        final File portFile = new File(ShutdownConfiguration.getInstance().getPortFile());
+        Files.write(portFile.toPath(), ("host=127.0.0.1\nport=" + hungInstance.getLocalPort() + "\n").getBytes("UTF-8"));
+        
+        final ShutdownHandler shutdownHandler = new ShutdownHandler();
+        try {
+            shutdownHandler.startWithHandoff();
+            Assert.fail("Handoff from a hung instance must time out");
+        }
+        catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("did not complete within 200ms"));
+            Assert.assertEquals(LifecycleState.STARTING, shutdownHandler.getState());
+        }
+        finally {
+            hungInstance.close();
+            portFile.delete();
+        }
+    }
+    
+    private static class RecordingHandoffListener extends RecordingShutdownListener implements HandoffListener {
+        public RecordingHandoffListener(String name, List<String> events) {
+            super(name, null, events);
+        }
+
+        public void stopAccepting() {
+            this.events.add("stopAccepting " + this.name);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class MemoryPressureMonitorTest {
+    @Test
+    public void testCheckPressure() throws Exception {
+        final MemoryPressureMonitor monitor = new MemoryPressureMonitor(new ShutdownHandler());
+        monitor.setHeapThreshold(0);
+        monitor.setDirectThreshold(0);
+        monitor.setMaxDirectMemory(1);
+        
+        final String pressure = monitor.checkPressure();
+        Assert.assertNotNull(pressure);
+        Assert.assertTrue(pressure, pressure.contains("direct memory occupancy"));
+    }
+    
+    @Test
+    public void testJvmMaxDirectMemory() {
+        Assert.assertTrue(MemoryPressureMonitor.getJvmMaxDirectMemory() > 0);
+    }
+    
+    @Test
+    public void testNoPressure() throws Exception {
+        final MemoryPressureMonitor monitor = new MemoryPressureMonitor(new ShutdownHandler());
+        monitor.setHeapThreshold(2);
+        monitor.setDirectThreshold(2);
+        monitor.setMaxDirectMemory(Long.MAX_VALUE);
+        
+        Assert.assertNull(monitor.checkPressure());
+    }
+    
+    @Test(timeout=5000)
+    public void testSustainedPressureTriggersShutdown() throws Exception {
+        final File triggerFile = new File("target/memory-pressure-test.trigger");
+        triggerFile.delete();
+        
+        final ShutdownHandler shutdownHandler = new ShutdownHandler();
+        shutdownHandler.startup();
+        
+        final MemoryPressureMonitor monitor = new MemoryPressureMonitor(shutdownHandler);
+        monitor.setHeapThreshold(0);
+        monitor.setDirectThreshold(0);
+        monitor.setMaxDirectMemory(1);
+        monitor.setCheckInterval(10);
+        monitor.setSustainDuration(50);
+        monitor.setExitAfterShutdown(false);
+        monitor.setTriggerFile(triggerFile);
+        
+        final long start = System.currentTimeMillis();
+        monitor.start();
+        shutdownHandler.waitForShutdown();
+        
+        Assert.assertTrue("Pressure must be sustained before shutting down", System.currentTimeMillis() - start >= 50);
+        Assert.assertEquals(LifecycleState.SHUT_DOWN, shutdownHandler.getState());
+        
+        final String trigger = monitor.getTrigger();
+        Assert.assertNotNull(trigger);
+        Assert.assertTrue(trigger, trigger.contains("direct memory occupancy"));
+        
+        final String recorded = new String(Files.readAllBytes(triggerFile.toPath()), "UTF-8");
+        Assert.assertTrue(recorded, recorded.trim().endsWith(trigger));
+    }
+    
+    @Test(timeout=5000)
+    public void testPressureMustBeSustained() throws Exception {
+        final ShutdownHandler shutdownHandler = new ShutdownHandler();
+        shutdownHandler.startup();
+        
+        //Pressure that clears between checks never lasts long enough to trigger a restart
+        final MemoryPressureMonitor monitor = new MemoryPressureMonitor(shutdownHandler) {
+            private int checks = 0;
+            
+            @Override
+            protected String checkPressure() {
+                return ++this.checks % 2 == 0 ? null : "test pressure";
+            }
+        };
+        monitor.setMaxDirectMemory(0);
+        monitor.setCheckInterval(10);
+        monitor.setSustainDuration(15);
+        monitor.setExitAfterShutdown(false);
+        monitor.start();
+        
+        Thread.sleep(200);
+        Assert.assertNull(monitor.getTrigger());
+        Assert.assertEquals(LifecycleState.READY, shutdownHandler.getState());
+        
+        shutdownHandler.shutdown();
+    }
+}
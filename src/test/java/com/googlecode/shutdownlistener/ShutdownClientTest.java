@@ -0,0 +1,117 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.googlecode.shutdownlistener.client.ShutdownClient;
+
+/**
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class ShutdownClientTest {
+    private ShutdownHandler shutdownHandler;
+    
+    @Before
+    public void setupTest() throws Exception {
+        ShutdownConfiguration.deleteInstance();
+        System.setProperty(ShutdownConfiguration.CONFIGURATION_SYSTEM_PROPERTY, "/shutdown-listener-test.properties");
+        
+        this.shutdownHandler = new ShutdownHandler();
+        this.shutdownHandler.start();
+    }
+    
+    @After
+    public void teardownTest() {
+        this.shutdownHandler.shutdown();
+        System.getProperties().remove(ShutdownConfiguration.CONFIGURATION_SYSTEM_PROPERTY);
+        System.getProperties().remove("shutdown-listener.configurationFile");
+        ShutdownConfiguration.deleteInstance();
+    }
+    
+    @Test(timeout=5000)
+    public void testSendCommand() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final String lastLine = ShutdownClient.sendCommand("127.0.0.1", this.shutdownHandler.getBoundPort(), "S", 5000, new PrintStream(out, true));
+        
+        Assert.assertTrue(lastLine, lastLine.endsWith(": Running"));
+        Assert.assertTrue(out.toString().contains(lastLine));
+    }
+    
+    @Test(timeout=5000)
+    public void testMainUsesPortFile() throws Exception {
+        //The test configuration uses an ephemeral port so the client can only find it through the port file
+        System.setProperty("shutdown-listener.configurationFile", "target/test-classes/shutdown-listener-test.properties");
+        
+        final PrintStream systemOut = System.out;
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(out, true));
+        try {
+            ShutdownClient.main(new String[] { "SW" });
+        }
+        finally {
+            System.setOut(systemOut);
+        }
+        
+        Assert.assertTrue(out.toString(), out.toString().contains(":" + this.shutdownHandler.getBoundPort() + " with command: SW"));
+        Assert.assertTrue(out.toString(), out.toString().contains("Shutdown Complete"));
+        Assert.assertTrue(this.shutdownHandler.isShutdownComplete());
+    }
+    
+    @Test
+    public void testPortRangeRequiresPortFile() throws Exception {
+        System.setProperty("shutdown-listener.configurationFile", writeConfiguration("port=7456-7460\n").getPath());
+        try {
+            ShutdownClient.main(new String[] { "S" });
+            Assert.fail("A port range without a port file must not guess a port");
+        }
+        catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("portFile must be configured"));
+        }
+    }
+    
+    @Test
+    public void testEphemeralPortWithMissingPortFile() throws Exception {
+        System.setProperty("shutdown-listener.configurationFile", writeConfiguration("port=0\nportFile=target/missing.port\n").getPath());
+        try {
+            ShutdownClient.main(new String[] { "S" });
+            Assert.fail("An ephemeral port without the port file must not guess a port");
+        }
+        catch (ConnectException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("is the application running?"));
+        }
+    }
+    
+    private static File writeConfiguration(String properties) throws IOException {
+        final File configurationFile = File.createTempFile("shutdown-client-test", ".properties", new File("target"));
+        configurationFile.deleteOnExit();
+        Files.write(configurationFile.toPath(), properties.getBytes("UTF-8"));
+        return configurationFile;
+    }
+}
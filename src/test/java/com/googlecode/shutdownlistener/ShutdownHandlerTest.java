@@ -0,0 +1,338 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.googlecode.shutdownlistener.mock.RecordingShutdownListener;
+
+/**
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class ShutdownHandlerTest {
+    @Test
+    public void testShutdownGroup() throws Exception {
+        final List<String> shutdown = Collections.synchronizedList(new ArrayList<String>());
+        
+        final ShutdownHandler shutdownHandler = new ShutdownHandler();
+        shutdownHandler.registerShutdownListener(new RecordingShutdownListener("web", null, shutdown));
+        shutdownHandler.registerShutdownListener(new RecordingShutdownListener("batch1", "batch", shutdown));
+        shutdownHandler.registerShutdownListener(new RecordingShutdownListener("batch2", "batch", shutdown));
+        shutdownHandler.startup();
+        
+        Assert.assertFalse(shutdownHandler.shutdownGroup("unknown"));
+        Assert.assertTrue(shutdownHandler.shutdownGroup("batch"));
+        Assert.assertFalse(shutdownHandler.shutdownGroup("batch"));
+        Assert.assertEquals(2, shutdown.size());
+        Assert.assertEquals("Running (stopped groups: [batch])", shutdownHandler.getStatus());
+        
+        shutdownHandler.shutdown();
+        Assert.assertEquals(3, shutdown.size());
+        Assert.assertEquals("web", shutdown.get(2));
+    }
+    
+    @Test
+    public void testPauseResume() throws Exception {
+        final List<String> shutdown = Collections.synchronizedList(new ArrayList<String>());
+        final RecordingShutdownListener listener = new RecordingShutdownListener("web", null, shutdown);
+        
+        final ShutdownHandler shutdownHandler = new ShutdownHandler();
+        shutdownHandler.registerShutdownListener(listener);
+        
+        Assert.assertFalse("Cannot pause while starting", shutdownHandler.pause());
+        shutdownHandler.startup();
+        
+        Assert.assertTrue(shutdownHandler.pause());
+        Assert.assertEquals(LifecycleState.PAUSED, shutdownHandler.getState());
+        Assert.assertTrue(listener.isPaused());
+        
+        Assert.assertTrue(shutdownHandler.resume());
+        Assert.assertEquals(LifecycleState.READY, shutdownHandler.getState());
+        Assert.assertFalse(listener.isPaused());
+        Assert.assertFalse(shutdownHandler.resume());
+        
+        shutdownHandler.shutdown();
+        Assert.assertEquals(LifecycleState.SHUT_DOWN, shutdownHandler.getState());
+    }
+    
+    @Test
+    public void testPauseSkipsStoppedGroups() throws Exception {
+        final List<String> shutdown = Collections.synchronizedList(new ArrayList<String>());
+        final RecordingShutdownListener web = new RecordingShutdownListener("web", null, shutdown);
+        final RecordingShutdownListener batch = new RecordingShutdownListener("batch1", "batch", shutdown);
+        
+        final ShutdownHandler shutdownHandler = new ShutdownHandler();
+        shutdownHandler.registerShutdownListener(web);
+        shutdownHandler.registerShutdownListener(batch);
+        shutdownHandler.startup();
+        
+        //Pausing before the group stops and resuming after must not resume the stopped listener
+        Assert.assertTrue(shutdownHandler.pause());
+        Assert.assertTrue(batch.isPaused());
+        Assert.assertTrue(shutdownHandler.shutdownGroup("batch"));
+        Assert.assertTrue(shutdownHandler.resume());
+        Assert.assertFalse(web.isPaused());
+        Assert.assertTrue("Stopped group must not be resumed", batch.isPaused());
+        
+        batch.resume();
+        Assert.assertTrue(shutdownHandler.pause());
+        Assert.assertTrue(web.isPaused());
+        Assert.assertFalse("Stopped group must not be paused", batch.isPaused());
+        
+        shutdownHandler.shutdown();
+    }
+    
+    @Test(timeout=5000)
+    public void testConcurrentShutdownWaitsForCompletion() throws Exception {
+        final CountDownLatch listenerStarted = new CountDownLatch(1);
+        final CountDownLatch releaseListener = new CountDownLatch(1);
+        final AtomicBoolean listenerComplete = new AtomicBoolean(false);
+        final AtomicReference<ShutdownResult> reentrantResult = new AtomicReference<ShutdownResult>();
+        
+        final ShutdownHandler shutdownHandler = new ShutdownHandler();
+        shutdownHandler.registerShutdownListener(new ShutdownListener() {
+            public void shutdown() {
+                listenerStarted.countDown();
+                reentrantResult.set(shutdownHandler.shutdownWithResult());
+                try {
+                    releaseListener.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                listenerComplete.set(true);
+            }
+        });
+        shutdownHandler.startup();
+        
+        final AtomicReference<ShutdownResult> firstResult = new AtomicReference<ShutdownResult>();
+        final Thread firstShutdown = new Thread(new Runnable() {
+            public void run() {
+                firstResult.set(shutdownHandler.shutdownWithResult());
+            }
+        });
+        firstShutdown.start();
+        listenerStarted.await();
+        
+        final AtomicReference<ShutdownResult> secondResult = new AtomicReference<ShutdownResult>();
+        final AtomicBoolean secondSawComplete = new AtomicBoolean(false);
+        final Thread secondShutdown = new Thread(new Runnable() {
+            public void run() {
+                secondResult.set(shutdownHandler.shutdownWithResult());
+                secondSawComplete.set(listenerComplete.get());
+            }
+        });
+        secondShutdown.start();
+        
+        secondShutdown.join(200);
+        Assert.assertTrue("Second shutdown must wait for the first", secondShutdown.isAlive());
+        
+        releaseListener.countDown();
+        firstShutdown.join();
+        secondShutdown.join();
+        
+        Assert.assertNull("Re-entrant shutdown must not wait on itself", reentrantResult.get());
+        Assert.assertTrue(secondSawComplete.get());
+        Assert.assertNotNull(firstResult.get());
+        Assert.assertSame(firstResult.get(), secondResult.get());
+        Assert.assertTrue(firstResult.get().isSuccessful());
+        Assert.assertSame(firstResult.get(), shutdownHandler.shutdownWithResult());
+    }
+    
+    @Test(timeout=5000)
+    public void testFailedShutdownReleasesWaiters() throws Exception {
+        final ShutdownHandler shutdownHandler = new ShutdownHandler() {
+            @Override
+            protected void postShutdownListeners() {
+                throw new IllegalStateException("post shutdown failed");
+            }
+        };
+        shutdownHandler.startup();
+        
+        try {
+            shutdownHandler.shutdown();
+            Assert.fail("Exception from postShutdownListeners should propagate");
+        }
+        catch (IllegalStateException e) {
+            //Expected
+        }
+        
+        shutdownHandler.waitForShutdown();
+        Assert.assertEquals(LifecycleState.SHUT_DOWN, shutdownHandler.getState());
+        Assert.assertTrue(shutdownHandler.isShutdownComplete());
+        Assert.assertFalse(shutdownHandler.getShutdownResult().isSuccessful());
+        Assert.assertSame(shutdownHandler.getShutdownResult(), shutdownHandler.shutdownWithResult());
+    }
+    
+    @Test(timeout=5000)
+    public void testGroupListenersRunOutsideGroupLock() throws Exception {
+        final List<String> shutdown = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch groupStarted = new CountDownLatch(1);
+        final CountDownLatch releaseGroup = new CountDownLatch(1);
+        
+        final ShutdownHandler shutdownHandler = new ShutdownHandler();
+        shutdownHandler.registerShutdownListener(new RecordingShutdownListener("web", null, shutdown));
+        shutdownHandler.registerShutdownListener(new RecordingShutdownListener("report", "reports", shutdown));
+        shutdownHandler.registerShutdownListener(new RecordingShutdownListener("batch", "batch", shutdown) {
+            @Override
+            public void shutdown() {
+                groupStarted.countDown();
+                try {
+                    releaseGroup.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.shutdown();
+            }
+        });
+        shutdownHandler.startup();
+        
+        final Thread groupShutdown = new Thread(new Runnable() {
+            public void run() {
+                shutdownHandler.shutdownGroup("batch");
+            }
+        });
+        groupShutdown.start();
+        groupStarted.await();
+        
+        //None of these wait for the running group
+        Assert.assertEquals("Running (stopped groups: [batch])", shutdownHandler.getStatus());
+        Assert.assertTrue(shutdownHandler.planShutdown().getSteps().get(2).isSkipped());
+        Assert.assertFalse("Group is already claimed", shutdownHandler.shutdownGroup("batch"));
+        Assert.assertTrue(shutdownHandler.shutdownGroup("reports"));
+        Assert.assertEquals(Arrays.asList("report"), shutdown);
+        
+        final Thread fullShutdown = new Thread(new Runnable() {
+            public void run() {
+                shutdownHandler.shutdown();
+            }
+        });
+        fullShutdown.start();
+        fullShutdown.join(200);
+        Assert.assertTrue("Shutdown must wait for the running group", fullShutdown.isAlive());
+        Assert.assertEquals(Arrays.asList("report"), shutdown);
+        
+        releaseGroup.countDown();
+        groupShutdown.join();
+        fullShutdown.join();
+        Assert.assertEquals(Arrays.asList("report", "batch", "web"), shutdown);
+    }
+    
+    @Test
+    public void testPlanShutdown() throws Exception {
+        final List<String> shutdown = Collections.synchronizedList(new ArrayList<String>());
+        
+        final ShutdownHandler shutdownHandler = new ShutdownHandler();
+        shutdownHandler.registerShutdownListener(new RecordingShutdownListener("web", null, shutdown));
+        shutdownHandler.registerShutdownListener(new RecordingShutdownListener("batch1", "batch", shutdown));
+        shutdownHandler.startup();
+        Assert.assertTrue(shutdownHandler.shutdownGroup("batch"));
+        
+        final ShutdownPlan plan = shutdownHandler.planShutdown();
+        Assert.assertEquals("Planning must not call listeners", 1, shutdown.size());
+        Assert.assertFalse(shutdownHandler.isShutdownRequested());
+        
+        final List<ShutdownPlan.Step> steps = plan.getSteps();
+        Assert.assertEquals(2, steps.size());
+        Assert.assertEquals(1, steps.get(0).getOrder());
+        Assert.assertNull(steps.get(0).getGroup());
+        Assert.assertFalse(steps.get(0).isSkipped());
+        Assert.assertEquals(-1, steps.get(0).getEstimatedDuration());
+        Assert.assertEquals("batch", steps.get(1).getGroup());
+        Assert.assertTrue(steps.get(1).isSkipped());
+        Assert.assertEquals(1, plan.getUnestimatedCount());
+        
+        shutdownHandler.shutdown();
+        Assert.assertEquals(2, shutdown.size());
+    }
+    
+    @Test
+    public void testListenerKeysStableAcrossGroupShutdown() throws Exception {
+        final List<String> shutdown = Collections.synchronizedList(new ArrayList<String>());
+        
+        final ShutdownHandler shutdownHandler = new ShutdownHandler();
+        shutdownHandler.registerShutdownListener(new RecordingShutdownListener("web", null, shutdown));
+        shutdownHandler.registerShutdownListener(new RecordingShutdownListener("batch1", "batch", shutdown));
+        shutdownHandler.registerShutdownListener(new RecordingShutdownListener("batch2", "batch", shutdown));
+        shutdownHandler.startup();
+        
+        Assert.assertTrue(shutdownHandler.shutdownGroup("batch"));
+        final ShutdownResult result = shutdownHandler.shutdownWithResult();
+        
+        final String key = RecordingShutdownListener.class.getName();
+        Assert.assertEquals(Arrays.asList(key + "#2", key + "#3", key), new ArrayList<String>(result.getListenerDurations().keySet()));
+    }
+    
+    @Test
+    public void testGroupShutdownTraceEndsOnError() throws Exception {
+        final List<String> shutdown = Collections.synchronizedList(new ArrayList<String>());
+        
+        final ShutdownHandler shutdownHandler = new ShutdownHandler();
+        shutdownHandler.registerShutdownListener(new RecordingShutdownListener("batch", "batch", shutdown) {
+            @Override
+            public void shutdown() {
+                throw new OutOfMemoryError("Test error from group listener");
+            }
+        });
+        shutdownHandler.startup();
+        
+        try {
+            shutdownHandler.shutdownGroup("batch");
+            Assert.fail("Error from a group listener should propagate");
+        }
+        catch (OutOfMemoryError e) {
+            //Expected
+        }
+        
+        final StringWriter trace = new StringWriter();
+        shutdownHandler.getShutdownTrace().write(trace);
+        Assert.assertTrue(trace.toString(), trace.toString().contains("\"name\":\"Shutdown group batch\",\"cat\":\"group\""));
+        
+        shutdownHandler.shutdown();
+    }
+    
+    @Test
+    public void testShutdownTrace() throws Exception {
+        final List<String> shutdown = Collections.synchronizedList(new ArrayList<String>());
+        
+        final ShutdownHandler shutdownHandler = new ShutdownHandler();
+        shutdownHandler.registerShutdownListener(new RecordingShutdownListener("web", null, shutdown));
+        shutdownHandler.startup();
+        shutdownHandler.shutdown();
+        
+        final StringWriter trace = new StringWriter();
+        shutdownHandler.getShutdownTrace().write(trace);
+        
+        Assert.assertTrue(trace.toString().startsWith("{\"displayTimeUnit\":\"ms\",\"traceEvents\":["));
+        Assert.assertTrue(trace.toString().contains("\"name\":\"thread_name\""));
+        Assert.assertTrue(trace.toString().contains("\"args\":{\"class\":\"" + RecordingShutdownListener.class.getName() + "\"}"));
+        Assert.assertTrue(trace.toString().contains("\"name\":\"Shutdown\",\"cat\":\"handler\",\"ph\":\"X\""));
+    }
+}
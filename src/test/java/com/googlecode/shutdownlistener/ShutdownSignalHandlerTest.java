@@ -0,0 +1,90 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class ShutdownSignalHandlerTest {
+    @Test(timeout = 10000)
+    public void testShutdownSignal() throws Exception {
+        final ShutdownHandler shutdownHandler = new ShutdownHandler();
+        shutdownHandler.startup();
+        
+        final RecordingSignalHandler signalHandler = new RecordingSignalHandler(shutdownHandler);
+        signalHandler.setExitAfterShutdown(false);
+        
+        signalHandler.onShutdownSignal("TERM");
+        shutdownHandler.waitForShutdown();
+        Assert.assertEquals(LifecycleState.SHUT_DOWN, shutdownHandler.getState());
+        Assert.assertEquals(-1, signalHandler.haltStatus);
+    }
+    
+    @Test(timeout = 10000)
+    public void testSecondSignalHalts() throws Exception {
+        final CountDownLatch listenerStarted = new CountDownLatch(1);
+        final CountDownLatch releaseListener = new CountDownLatch(1);
+        
+        final ShutdownHandler shutdownHandler = new ShutdownHandler();
+        shutdownHandler.registerShutdownListener(new ShutdownListener() {
+            public void shutdown() {
+                listenerStarted.countDown();
+                try {
+                    releaseListener.await(5, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        shutdownHandler.startup();
+        
+        final RecordingSignalHandler signalHandler = new RecordingSignalHandler(shutdownHandler);
+        signalHandler.setExitAfterShutdown(false);
+        signalHandler.setEscalationExitCode(42);
+        
+        signalHandler.onShutdownSignal("TERM");
+        Assert.assertTrue(listenerStarted.await(5, TimeUnit.SECONDS));
+        
+        signalHandler.onShutdownSignal("TERM");
+        Assert.assertEquals(42, signalHandler.haltStatus);
+        
+        releaseListener.countDown();
+        shutdownHandler.waitForShutdown();
+    }
+    
+    private static class RecordingSignalHandler extends ShutdownSignalHandler {
+        private volatile int haltStatus = -1;
+        
+        public RecordingSignalHandler(ShutdownHandler shutdownHandler) {
+            super(shutdownHandler);
+        }
+
+        @Override
+        protected void halt(int status) {
+            this.haltStatus = status;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class ShutdownSocketLimitsTest {
+    private ShutdownHandler shutdownHandler;
+    
+    @Before
+    public void setupTest() throws Exception {
+        ShutdownConfiguration.deleteInstance();
+        System.setProperty(ShutdownConfiguration.CONFIGURATION_SYSTEM_PROPERTY, "/shutdown-listener-limits-test.properties");
+        
+        this.shutdownHandler = new ShutdownHandler();
+        this.shutdownHandler.start();
+    }
+    
+    @After
+    public void teardownTest() {
+        this.shutdownHandler.shutdown();
+        System.getProperties().remove(ShutdownConfiguration.CONFIGURATION_SYSTEM_PROPERTY);
+        ShutdownConfiguration.deleteInstance();
+    }
+    
+    @Test(timeout=5000)
+    public void testConnectionLimit() throws Exception {
+        final Socket idle = this.connect();
+        try {
+            //Give the listener a chance to hand the idle connection the only permit
+            Thread.sleep(100);
+            
+            final Socket rejected = this.connect();
+            try {
+                final String response = this.sendCommand(rejected, "S");
+                Assert.assertNotNull("The rejection reply must not be lost", response);
+                Assert.assertTrue(response, response.endsWith(": Too many connections"));
+            }
+            finally {
+                rejected.close();
+            }
+            
+            //The idle connection is closed at the read deadline, releasing the permit
+            Assert.assertEquals(-1, this.read(idle));
+        }
+        finally {
+            idle.close();
+        }
+        
+        //The permit is released by the handler thread just after the connection closes
+        String response;
+        do {
+            final Socket accepted = this.connect();
+            try {
+                response = this.sendCommand(accepted, "S");
+            }
+            finally {
+                accepted.close();
+            }
+        } while (response.endsWith(": Too many connections"));
+        Assert.assertTrue(response, response.endsWith(": Running"));
+    }
+    
+    @Test
+    public void testInvalidLimitsUseDefaults() throws Exception {
+        ShutdownConfiguration.deleteInstance();
+        System.setProperty(ShutdownConfiguration.CONFIGURATION_SYSTEM_PROPERTY, "/shutdown-listener-invalid-limits-test.properties");
+        
+        final ShutdownConfiguration config = ShutdownConfiguration.getInstance();
+        Assert.assertEquals(256, config.getMaxCommandLength());
+        Assert.assertEquals(5000, config.getReadTimeout());
+        Assert.assertEquals(8, config.getMaxConnections());
+    }
+    
+    private Socket connect() throws Exception {
+        return new Socket("127.0.0.1", this.shutdownHandler.getBoundPort());
+    }
+    
+    private int read(Socket socket) {
+        try {
+            return socket.getInputStream().read();
+        }
+        catch (Exception e) {
+            //Reset by the read deadline
+            return -1;
+        }
+    }
+    
+    private String sendCommand(Socket socket, String command) throws Exception {
+        final OutputStream out = socket.getOutputStream();
+        out.write((command + "\n").getBytes("UTF-8"));
+        out.flush();
+        
+        final BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+        return in.readLine();
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class StartupListenerTest {
+    @Test(timeout=5000)
+    public void testDependencyOrder() throws Exception {
+        final List<String> completed = Collections.synchronizedList(new ArrayList<String>());
+        
+        final ShutdownHandler shutdownHandler = new ShutdownHandler();
+        shutdownHandler.registerStartupListener(new RecordingStartupListener("d", completed, "b", "c"));
+        shutdownHandler.registerStartupListener(new RecordingStartupListener("b", completed, "a"));
+        shutdownHandler.registerStartupListener(new RecordingStartupListener("c", completed, "a"));
+        shutdownHandler.registerStartupListener(new RecordingStartupListener("a", completed));
+        
+        Assert.assertEquals(LifecycleState.STARTING, shutdownHandler.getState());
+        shutdownHandler.startup();
+        Assert.assertEquals(LifecycleState.READY, shutdownHandler.getState());
+        
+        Assert.assertEquals(4, completed.size());
+        Assert.assertEquals("a", completed.get(0));
+        Assert.assertEquals("d", completed.get(3));
+        Assert.assertEquals(4, shutdownHandler.getStartupTimings().size());
+    }
+    
+    @Test(timeout=5000)
+    public void testDependencyCycle() throws Exception {
+        final List<String> completed = Collections.synchronizedList(new ArrayList<String>());
+        
+        final ShutdownHandler shutdownHandler = new ShutdownHandler();
+        shutdownHandler.registerStartupListener(new RecordingStartupListener("a", completed, "b"));
+        shutdownHandler.registerStartupListener(new RecordingStartupListener("b", completed, "a"));
+        
+        try {
+            shutdownHandler.startup();
+            Assert.fail("Cyclic dependencies should fail startup");
+        }
+        catch (IllegalStateException ise) {
+            //Expected
+        }
+        
+        Assert.assertTrue(completed.isEmpty());
+        Assert.assertEquals(LifecycleState.STARTING, shutdownHandler.getState());
+    }
+    
+    private static class RecordingStartupListener implements StartupListener {
+        private final String name;
+        private final List<String> completed;
+        private final Collection<String> dependencies;
+        
+        public RecordingStartupListener(String name, List<String> completed, String... dependencies) {
+            this.name = name;
+            this.completed = completed;
+            this.dependencies = Arrays.asList(dependencies);
+        }
+
+        public String getStartupName() {
+            return this.name;
+        }
+
+        public Collection<String> getStartupDependencies() {
+            return this.dependencies;
+        }
+
+        public void startup() throws Exception {
+            Thread.sleep(10);
+            this.completed.add(this.name);
+        }
+    }
+}
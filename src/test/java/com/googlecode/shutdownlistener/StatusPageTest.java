@@ -0,0 +1,110 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.googlecode.shutdownlistener.client.StatusPageReader;
+
+/**
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class StatusPageTest {
+    @Test
+    public void testStatusPage() throws Exception {
+        final File statusFile = new File("target/status-page-test.status");
+        statusFile.delete();
+        
+        final ShutdownHandler shutdownHandler = new ShutdownHandler();
+        shutdownHandler.registerShutdownListener(new InFlightShutdownListener() {
+            public void shutdown() {
+            }
+            
+            public int getInFlightCount() {
+                return 3;
+            }
+        });
+        
+        final StatusPage statusPage = new StatusPage(shutdownHandler, statusFile, 10);
+        final StatusPageReader reader = new StatusPageReader(statusFile);
+        
+        StatusPageReader.Status status = reader.read();
+        Assert.assertEquals("STARTING", status.getState());
+        Assert.assertEquals(0, status.getSequence() % 2);
+        Assert.assertTrue(status.getPid() > 0);
+        
+        shutdownHandler.startup();
+        statusPage.publish();
+        Assert.assertEquals("READY", reader.read().getState());
+        
+        final Thread heartbeat = new Thread(statusPage);
+        heartbeat.setDaemon(true);
+        heartbeat.start();
+        
+        final long sequence = reader.read().getSequence();
+        while (reader.read().getHeartbeatCount() < 2) {
+            Thread.sleep(5);
+        }
+        status = reader.read();
+        Assert.assertTrue(status.getSequence() > sequence);
+        Assert.assertEquals(3, status.getInFlight());
+        Assert.assertTrue(status.isAlive(1000));
+        
+        shutdownHandler.shutdown();
+        heartbeat.join(1000);
+        
+        status = reader.read();
+        Assert.assertEquals("SHUT_DOWN", status.getState());
+        Assert.assertEquals(1, status.getListenersTotal());
+        Assert.assertEquals(1, status.getListenersCompleted());
+    }
+    
+    @Test
+    public void testTornPageRejected() throws Exception {
+        final File statusFile = new File("target/status-page-torn-test.status");
+        statusFile.delete();
+        
+        final ShutdownHandler shutdownHandler = new ShutdownHandler();
+        new StatusPage(shutdownHandler, statusFile, 10);
+        final StatusPageReader reader = new StatusPageReader(statusFile);
+        Assert.assertEquals("STARTING", reader.read().getState());
+        
+        //A field changed without a matching checksum looks like a read torn by a concurrent update
+        final RandomAccessFile file = new RandomAccessFile(statusFile, "rw");
+        try {
+            file.seek(StatusPageReader.IN_FLIGHT_OFFSET);
+            file.writeInt(42);
+        }
+        finally {
+            file.close();
+        }
+        
+        try {
+            reader.read();
+            Assert.fail("A page that fails its checksum must not be returned");
+        }
+        catch (IllegalStateException e) {
+            //Expected
+        }
+    }
+}
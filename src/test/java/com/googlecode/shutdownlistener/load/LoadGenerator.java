@@ -0,0 +1,144 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener.load;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Open-loop load generator for {@link SampleService}. Requests are started at a fixed rate regardless of how long
+ * earlier requests take so a slow drain shows up as latency rather than a reduced request rate.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class LoadGenerator {
+    /**
+     * Outcome of a single request
+     */
+    public static enum Outcome {
+        OK, REFUSED, RESET, FAILED;
+    }
+    
+    /**
+     * Timing and outcome of a single request
+     */
+    public static final class Sample {
+        public final long start;
+        public final long end;
+        public final Outcome outcome;
+        
+        private Sample(long start, long end, Outcome outcome) {
+            this.start = start;
+            this.end = end;
+            this.outcome = outcome;
+        }
+        
+        public long getLatency() {
+            return this.end - this.start;
+        }
+    }
+    
+    private final int port;
+    private final int rate;
+    private final AtomicLong requestId = new AtomicLong();
+    private final List<Sample> samples = Collections.synchronizedList(new ArrayList<Sample>());
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService clients = Executors.newCachedThreadPool();
+    
+    /**
+     * @param rate Requests per second
+     */
+    public LoadGenerator(int port, int rate) {
+        this.port = port;
+        this.rate = rate;
+    }
+    
+    public void start() {
+        this.scheduler.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                clients.execute(new Runnable() {
+                    public void run() {
+                        request();
+                    }
+                });
+            }
+        }, 0, TimeUnit.SECONDS.toNanos(1) / this.rate, TimeUnit.NANOSECONDS);
+    }
+    
+    /**
+     * Stops generating requests and waits for outstanding requests to complete
+     * 
+     * @return All samples recorded, in completion order
+     */
+    public List<Sample> stop() throws InterruptedException {
+        this.scheduler.shutdownNow();
+        this.clients.shutdown();
+        this.clients.awaitTermination(30, TimeUnit.SECONDS);
+        
+        synchronized (this.samples) {
+            return new ArrayList<Sample>(this.samples);
+        }
+    }
+    
+    private void request() {
+        final long start = System.nanoTime();
+        Outcome outcome;
+        try {
+            final Socket socket = new Socket(InetAddress.getByName("127.0.0.1"), this.port);
+            try {
+                socket.setSoTimeout(30000);
+                final PrintWriter writer = new PrintWriter(socket.getOutputStream());
+                writer.println(this.requestId.incrementAndGet());
+                writer.flush();
+                
+                final BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                final String response = reader.readLine();
+                outcome = response != null && response.startsWith("OK") ? Outcome.OK : Outcome.RESET;
+            }
+            finally {
+                socket.close();
+            }
+        }
+        catch (ConnectException ce) {
+            outcome = Outcome.REFUSED;
+        }
+        catch (SocketException se) {
+            outcome = Outcome.RESET;
+        }
+        catch (IOException ioe) {
+            outcome = Outcome.FAILED;
+        }
+        
+        this.samples.add(new Sample(start, System.nanoTime(), outcome));
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener.load;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.googlecode.shutdownlistener.DrainingExecutorService;
+import com.googlecode.shutdownlistener.ShutdownHandler;
+import com.googlecode.shutdownlistener.ShutdownListener;
+
+/**
+ * Line based request/response service used by {@link ShutdownLoadTest}. Each accepted connection is handled on a
+ * {@link DrainingExecutorService}, on shutdown the server socket is closed and the accept thread stopped and then the
+ * executor is drained, so every accepted connection is handed to the executor before draining starts.
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class SampleService implements ShutdownListener, Runnable {
+    private final ServerSocket serverSocket;
+    private final DrainingExecutorService executor;
+    private final long serviceTime;
+    private final Thread acceptThread;
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    
+    public SampleService(ShutdownHandler shutdownHandler, int workers, long serviceTime) throws IOException {
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        this.serviceTime = serviceTime;
+        
+        //Register first so the socket is closed before the executor starts draining
+        shutdownHandler.registerShutdownListener(this);
+        this.executor = new DrainingExecutorService(shutdownHandler, 
+                new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>()), "SampleService");
+        
+        this.acceptThread = new Thread(this, "SampleService-" + this.getPort());
+        this.acceptThread.setDaemon(true);
+        this.acceptThread.start();
+    }
+    
+    public int getPort() {
+        return this.serverSocket.getLocalPort();
+    }
+    
+    /**
+     * @return Number of connections accepted by the service
+     */
+    public long getAccepted() {
+        return this.accepted.get();
+    }
+    
+    /**
+     * @return Number of accepted connections that were sent a response
+     */
+    public long getCompleted() {
+        return this.completed.get();
+    }
+
+    public void run() {
+        while (!this.serverSocket.isClosed()) {
+            final Socket connection;
+            try {
+                connection = this.serverSocket.accept();
+            }
+            catch (IOException ioe) {
+                continue;
+            }
+            
+            this.accepted.incrementAndGet();
+            try {
+                this.executor.execute(new Runnable() {
+                    public void run() {
+                        handle(connection);
+                    }
+                });
+            }
+            catch (RejectedExecutionException ree) {
+                try {
+                    connection.close();
+                }
+                catch (IOException ioe) {
+                    //Ignore
+                }
+            }
+        }
+    }
+    
+    private void handle(Socket connection) {
+        try {
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()));
+            final PrintWriter writer = new PrintWriter(connection.getOutputStream());
+            final String request = reader.readLine();
+            Thread.sleep(this.serviceTime);
+            writer.println("OK " + request);
+            writer.flush();
+            this.completed.incrementAndGet();
+        }
+        catch (Exception e) {
+            //Counted as not completed
+        }
+        finally {
+            try {
+                connection.close();
+            }
+            catch (IOException ioe) {
+                //Ignore
+            }
+        }
+    }
+
+    public void shutdown() {
+        try {
+            this.serverSocket.close();
+        }
+        catch (IOException ioe) {
+            //Ignore
+        }
+        
+        //A connection accepted just before the close must reach the executor before it starts draining
+        try {
+            this.acceptThread.join();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return "SampleService [port=" + this.getPort() + "]";
+    }
+}
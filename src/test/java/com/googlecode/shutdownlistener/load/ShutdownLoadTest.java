@@ -0,0 +1,114 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener.load;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.googlecode.shutdownlistener.ShutdownHandler;
+import com.googlecode.shutdownlistener.load.LoadGenerator.Outcome;
+import com.googlecode.shutdownlistener.load.LoadGenerator.Sample;
+
+/**
+ * Drives a {@link SampleService} at a fixed request rate, triggers a shutdown part way through the run and reports
+ * failed requests, reset connections and tail latency during the drain window. Excluded from the default build, run
+ * with <code>mvn test -P load-test</code>. The run is configured with system properties:
+ * <ul>
+ *  <li>loadtest.rate - requests per second, defaults to 200</li>
+ *  <li>loadtest.duration - length of the run in milliseconds, defaults to 4000</li>
+ *  <li>loadtest.shutdownAt - time into the run in milliseconds to trigger shutdown, defaults to 2000</li>
+ *  <li>loadtest.serviceTime - time in milliseconds the service spends on each request, defaults to 20</li>
+ *  <li>loadtest.workers - number of service worker threads, defaults to 16</li>
+ * </ul>
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class ShutdownLoadTest {
+    @Test
+    public void testShutdownUnderLoad() throws Exception {
+        final int rate = Integer.getInteger("loadtest.rate", 200);
+        final long duration = Long.getLong("loadtest.duration", 4000);
+        final long shutdownAt = Long.getLong("loadtest.shutdownAt", 2000);
+        final long serviceTime = Long.getLong("loadtest.serviceTime", 20);
+        final int workers = Integer.getInteger("loadtest.workers", 16);
+        
+        final ShutdownHandler shutdownHandler = new ShutdownHandler();
+        final SampleService service = new SampleService(shutdownHandler, workers, serviceTime);
+        final LoadGenerator loadGenerator = new LoadGenerator(service.getPort(), rate);
+        
+        loadGenerator.start();
+        Thread.sleep(shutdownAt);
+        
+        final long shutdownStart = System.nanoTime();
+        shutdownHandler.shutdown();
+        final long shutdownEnd = System.nanoTime();
+        
+        Thread.sleep(Math.max(0, duration - shutdownAt - TimeUnit.NANOSECONDS.toMillis(shutdownEnd - shutdownStart)));
+        final List<Sample> samples = loadGenerator.stop();
+        
+        final Map<Outcome, Integer> beforeShutdown = new EnumMap<Outcome, Integer>(Outcome.class);
+        final Map<Outcome, Integer> duringDrain = new EnumMap<Outcome, Integer>(Outcome.class);
+        final List<Long> drainLatencies = new ArrayList<Long>();
+        for (final Sample sample : samples) {
+            if (sample.start < shutdownStart) {
+                increment(beforeShutdown, sample.outcome);
+            }
+            if (sample.end >= shutdownStart && sample.end <= shutdownEnd) {
+                increment(duringDrain, sample.outcome);
+                if (sample.outcome == Outcome.OK) {
+                    drainLatencies.add(sample.getLatency());
+                }
+            }
+        }
+        Collections.sort(drainLatencies);
+        
+        System.out.println("Shutdown under load: " + rate + " req/s, " + serviceTime + "ms service time, " + workers + " workers");
+        System.out.println("  requests:           " + samples.size());
+        System.out.println("  drain window:       " + TimeUnit.NANOSECONDS.toMillis(shutdownEnd - shutdownStart) + "ms");
+        System.out.println("  started before:     " + beforeShutdown);
+        System.out.println("  completed in drain: " + duringDrain);
+        System.out.println("  drain p50:          " + percentile(drainLatencies, 0.50) + "ms");
+        System.out.println("  drain p99:          " + percentile(drainLatencies, 0.99) + "ms");
+        System.out.println("  drain p999:         " + percentile(drainLatencies, 0.999) + "ms");
+        System.out.println("  service accepted:   " + service.getAccepted() + ", completed: " + service.getCompleted());
+        
+        Assert.assertEquals("Every connection accepted by the service should be answered", service.getAccepted(), service.getCompleted());
+    }
+    
+    private static void increment(Map<Outcome, Integer> counts, Outcome outcome) {
+        final Integer count = counts.get(outcome);
+        counts.put(outcome, count == null ? 1 : count + 1);
+    }
+    
+    private static String percentile(List<Long> sortedLatencies, double percentile) {
+        if (sortedLatencies.isEmpty()) {
+            return "-";
+        }
+        
+        final int index = (int) Math.min(sortedLatencies.size() - 1, Math.ceil(percentile * sortedLatencies.size()) - 1);
+        return String.format("%.2f", sortedLatencies.get(Math.max(0, index)) / 1000000d);
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener.mock;
+
+import java.util.List;
+
+import com.googlecode.shutdownlistener.GroupedShutdownListener;
+import com.googlecode.shutdownlistener.PauseListener;
+
+/**
+ * Adds its name to a shared list when shut down and tracks if it is paused
+ * 
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class RecordingShutdownListener implements GroupedShutdownListener, PauseListener {
+    protected final String name;
+    protected final List<String> events;
+    private final String group;
+    private volatile boolean paused = false;
+    
+    public RecordingShutdownListener(String name, String group, List<String> events) {
+        this.name = name;
+        this.group = group;
+        this.events = events;
+    }
+    
+    public boolean isPaused() {
+        return this.paused;
+    }
+
+    public String getShutdownGroup() {
+        return this.group;
+    }
+
+    public void shutdown() {
+        this.events.add(this.name);
+    }
+
+    public void pause() {
+        this.paused = true;
+    }
+
+    public void resume() {
+        this.paused = false;
+    }
+
+    @Override
+    public String toString() {
+        return "RecordingShutdownListener [name=" + name + ", group=" + group + "]";
+    }
+}
@@ -0,0 +1,275 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener.snapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class SnapshotManagerTest {
+    private File snapshotFile;
+    
+    @Before
+    public void setupTest() throws IOException {
+        this.snapshotFile = File.createTempFile("snapshot", ".bin");
+        this.snapshotFile.delete();
+    }
+    
+    @After
+    public void cleanupTest() {
+        this.snapshotFile.delete();
+    }
+    
+    @Test
+    public void testSnapshotRoundTrip() throws Exception {
+        final SnapshotManager writer = new SnapshotManager(this.snapshotFile);
+        writer.registerParticipant(new StringParticipant("a", 1, "alpha"));
+        writer.registerParticipant(new StringParticipant("b", 1, "bravo"));
+        writer.shutdown();
+        Assert.assertTrue(this.snapshotFile.exists());
+        
+        final StringParticipant a = new StringParticipant("a", 1, null);
+        final StringParticipant b = new StringParticipant("b", 2, null);
+        final SnapshotManager reader = new SnapshotManager(this.snapshotFile);
+        reader.registerParticipant(a);
+        reader.registerParticipant(b);
+        Assert.assertTrue(reader.load());
+        
+        Assert.assertEquals("alpha", a.state);
+        Assert.assertNull("Version mismatch should cold start", b.state);
+        Assert.assertFalse(this.snapshotFile.exists());
+    }
+    
+    @Test
+    public void testCorruptSnapshotColdStarts() throws Exception {
+        final SnapshotManager writer = new SnapshotManager(this.snapshotFile);
+        writer.registerParticipant(new StringParticipant("a", 1, "alpha"));
+        writer.shutdown();
+        
+        final RandomAccessFile raf = new RandomAccessFile(this.snapshotFile, "rw");
+        raf.seek(raf.length() - 1);
+        raf.write('X');
+        raf.close();
+        
+        final StringParticipant a = new StringParticipant("a", 1, null);
+        final SnapshotManager reader = new SnapshotManager(this.snapshotFile);
+        reader.registerParticipant(a);
+        Assert.assertFalse(reader.load());
+        Assert.assertNull(a.state);
+    }
+    
+    @Test
+    public void testMaxSnapshotSize() throws Exception {
+        final SnapshotManager writer = new SnapshotManager(this.snapshotFile);
+        writer.setMaxSnapshotSize(40);
+        //Participants that write first get the space, a single writer keeps registration order
+        writer.setWriterThreads(1);
+        writer.registerParticipant(new StringParticipant("a", 1, "alpha"));
+        writer.registerParticipant(new StringParticipant("b", 1, "bravo"));
+        writer.shutdown();
+        
+        final StringParticipant a = new StringParticipant("a", 1, null);
+        final StringParticipant b = new StringParticipant("b", 1, null);
+        final SnapshotManager reader = new SnapshotManager(this.snapshotFile);
+        reader.registerParticipant(a);
+        reader.registerParticipant(b);
+        Assert.assertTrue(reader.load());
+        Assert.assertEquals("alpha", a.state);
+        Assert.assertNull(b.state);
+    }
+    
+    @Test
+    public void testStopsParticipantAtMaxSnapshotSize() throws Exception {
+        final ChunkedParticipant large = new ChunkedParticipant("large", 1000, false);
+        
+        final SnapshotManager writer = new SnapshotManager(this.snapshotFile);
+        writer.setMaxSnapshotSize(4096);
+        writer.setWriterThreads(1);
+        writer.registerParticipant(new StringParticipant("a", 1, "alpha"));
+        writer.registerParticipant(large);
+        writer.registerParticipant(new StringParticipant("b", 1, "bravo"));
+        writer.shutdown();
+        
+        Assert.assertTrue("Writing must stop at the remaining space, wrote " + large.chunksWritten + " chunks", 
+                large.chunksWritten < 5);
+        
+        final StringParticipant a = new StringParticipant("a", 1, null);
+        final ChunkedParticipant largeReader = new ChunkedParticipant("large", 0, false);
+        final StringParticipant b = new StringParticipant("b", 1, null);
+        final SnapshotManager reader = new SnapshotManager(this.snapshotFile);
+        reader.registerParticipant(a);
+        reader.registerParticipant(largeReader);
+        reader.registerParticipant(b);
+        Assert.assertTrue(reader.load());
+        Assert.assertEquals("alpha", a.state);
+        Assert.assertFalse(largeReader.loaded);
+        Assert.assertEquals("Space reserved by the skipped participant is returned", "bravo", b.state);
+    }
+    
+    @Test
+    public void testSkipsParticipantIgnoringMaxSnapshotSize() throws Exception {
+        final SnapshotManager writer = new SnapshotManager(this.snapshotFile);
+        writer.setMaxSnapshotSize(4096);
+        writer.registerParticipant(new ChunkedParticipant("large", 1000, true));
+        writer.shutdown();
+        
+        final ChunkedParticipant largeReader = new ChunkedParticipant("large", 0, false);
+        final SnapshotManager reader = new SnapshotManager(this.snapshotFile);
+        reader.registerParticipant(largeReader);
+        Assert.assertTrue(reader.load());
+        Assert.assertFalse("A truncated state must not be written", largeReader.loaded);
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void testMaxSnapshotSizeTooLarge() {
+        new SnapshotManager(this.snapshotFile).setMaxSnapshotSize(Integer.MAX_VALUE + 1L);
+    }
+    
+    @Test
+    public void testReplacesExistingSnapshot() throws Exception {
+        final SnapshotManager first = new SnapshotManager(this.snapshotFile);
+        first.registerParticipant(new StringParticipant("a", 1, "alpha"));
+        first.shutdown();
+        
+        final SnapshotManager second = new SnapshotManager(this.snapshotFile);
+        second.registerParticipant(new StringParticipant("a", 1, "apple"));
+        second.shutdown();
+        Assert.assertFalse(new File(this.snapshotFile.getPath() + ".tmp").exists());
+        
+        final StringParticipant a = new StringParticipant("a", 1, null);
+        final SnapshotManager reader = new SnapshotManager(this.snapshotFile);
+        reader.registerParticipant(a);
+        Assert.assertTrue(reader.load());
+        Assert.assertEquals("apple", a.state);
+    }
+    
+    @Test
+    public void testLongNameRoundTrip() throws Exception {
+        //Longer than Short.MAX_VALUE, the length must be written and read as an unsigned short
+        final String name = repeat('n', 40000);
+        
+        final SnapshotManager writer = new SnapshotManager(this.snapshotFile);
+        writer.registerParticipant(new StringParticipant(name, 1, "alpha"));
+        writer.shutdown();
+        
+        final StringParticipant a = new StringParticipant(name, 1, null);
+        final SnapshotManager reader = new SnapshotManager(this.snapshotFile);
+        reader.registerParticipant(a);
+        Assert.assertTrue(reader.load());
+        Assert.assertEquals("alpha", a.state);
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void testNameTooLong() throws Exception {
+        final SnapshotManager writer = new SnapshotManager(this.snapshotFile);
+        writer.registerParticipant(new StringParticipant(repeat('n', SnapshotManager.MAX_NAME_LENGTH + 1), 1, "alpha"));
+    }
+    
+    private static String repeat(char c, int count) {
+        final StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+    
+    /**
+     * Writes its state in 1KB chunks
+     */
+    private static class ChunkedParticipant implements SnapshotParticipant {
+        private final String name;
+        private final int chunks;
+        private final boolean ignoreErrors;
+        private volatile int chunksWritten = 0;
+        private boolean loaded = false;
+        
+        public ChunkedParticipant(String name, int chunks, boolean ignoreErrors) {
+            this.name = name;
+            this.chunks = chunks;
+            this.ignoreErrors = ignoreErrors;
+        }
+
+        public String getSnapshotName() {
+            return this.name;
+        }
+
+        public int getSnapshotVersion() {
+            return 1;
+        }
+
+        public void writeSnapshot(OutputStream out) throws IOException {
+            final byte[] chunk = new byte[1024];
+            for (int i = 0; i < this.chunks; i++) {
+                try {
+                    out.write(chunk);
+                    this.chunksWritten++;
+                }
+                catch (IOException ioe) {
+                    if (!this.ignoreErrors) {
+                        throw ioe;
+                    }
+                }
+            }
+        }
+
+        public void loadSnapshot(ByteBuffer snapshot) {
+            this.loaded = true;
+        }
+    }
+    
+    private static class StringParticipant implements SnapshotParticipant {
+        private final String name;
+        private final int version;
+        private String state;
+        
+        public StringParticipant(String name, int version, String state) {
+            this.name = name;
+            this.version = version;
+            this.state = state;
+        }
+
+        public String getSnapshotName() {
+            return this.name;
+        }
+
+        public int getSnapshotVersion() {
+            return this.version;
+        }
+
+        public void writeSnapshot(OutputStream out) throws IOException {
+            out.write(this.state.getBytes("UTF-8"));
+        }
+
+        public void loadSnapshot(ByteBuffer snapshot) throws IOException {
+            final byte[] data = new byte[snapshot.remaining()];
+            snapshot.get(data);
+            this.state = new String(data, "UTF-8");
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright 2010 Eric Dalquist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.shutdownlistener.spring;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.GenericApplicationContext;
+
+import com.googlecode.shutdownlistener.ShutdownConfiguration;
+import com.googlecode.shutdownlistener.mock.RecordingShutdownListener;
+
+/**
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class ShutdownHandlerBeanTest {
+    @Before
+    public void setupTest() {
+        System.setProperty(ShutdownConfiguration.CONFIGURATION_SYSTEM_PROPERTY, "/shutdown-listener-test.properties");
+    }
+    
+    @After
+    public void teardownTest() {
+        System.getProperties().remove(ShutdownConfiguration.CONFIGURATION_SYSTEM_PROPERTY);
+    }
+    
+    @Test
+    public void testListenerKeysFromApplicationContext() throws Exception {
+        final List<String> shutdown = Collections.synchronizedList(new ArrayList<String>());
+        
+        final GenericApplicationContext applicationContext = new GenericApplicationContext();
+        applicationContext.refresh();
+        applicationContext.getBeanFactory().registerSingleton("web", new RecordingShutdownListener("web", null, shutdown));
+        applicationContext.getBeanFactory().registerSingleton("batch", new RecordingShutdownListener("batch", "batch", shutdown));
+        
+        final ShutdownHandlerBean shutdownHandler = new ShutdownHandlerBean();
+        shutdownHandler.setApplicationContext(applicationContext);
+        shutdownHandler.afterPropertiesSet();
+        shutdownHandler.startup();
+        
+        //Keys follow the context's listener order, not the order the listeners happen to run in
+        Assert.assertTrue(shutdownHandler.shutdownGroup("batch"));
+        shutdownHandler.shutdown();
+        
+        final String key = RecordingShutdownListener.class.getName();
+        Assert.assertEquals(Arrays.asList("batch", "web"), shutdown);
+        Assert.assertEquals(Arrays.asList(key + "#2", key), 
+                new ArrayList<String>(shutdownHandler.getShutdownResult().getListenerDurations().keySet()).subList(0, 2));
+        
+        applicationContext.close();
+    }
+}